@@ -0,0 +1,59 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.impl.StdCouchDbConnector;
+import org.ektorp.impl.StdCouchDbInstance;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
+import it.vinicioflamini.sharedlib.couchdb.ektorp.EktorpCrudRepository;
+
+/**
+ * Opens the internal methods of {@link EktorpCrudRepository} to the benchmarks. The repository is connected to a
+ * {@link ReplayHttpClient}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+@SuppressWarnings("rawtypes")
+public class BenchmarkRepository extends EktorpCrudRepository<Map, String> {
+
+    private final ReplayHttpClient client;
+
+    public BenchmarkRepository(ReplayHttpClient client) {
+        super(Map.class, connector(client));
+        this.client = client;
+    }
+
+    private static CouchDbConnector connector(ReplayHttpClient client) {
+        return new StdCouchDbConnector("products", new StdCouchDbInstance(client));
+    }
+
+    public ReplayHttpClient getClient() {
+        return client;
+    }
+
+    public CouchDbConnector getConnector() {
+        return db;
+    }
+
+    @Override
+    public ViewResult toViewResult(org.ektorp.ViewResult viewResult, ViewParams viewParams) {
+        return super.toViewResult(viewResult, viewParams);
+    }
+
+    @Override
+    public Object toObject(JsonNode jsonNode, Class<?> valueType) {
+        return super.toObject(jsonNode, valueType);
+    }
+
+    @Override
+    public void executeBulk(Collection<? extends Object> collection) {
+        super.executeBulk(collection);
+    }
+
+}
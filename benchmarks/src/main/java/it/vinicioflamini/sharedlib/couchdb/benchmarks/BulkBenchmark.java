@@ -0,0 +1,72 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationException;
+
+/**
+ * Measures a bulk operation including the serialization of the request, the parsing of the results and the
+ * collection of the errors. The replayed responses report a conflict for every n-th document, see
+ * {@link #errorEvery}.
+ * <p>
+ * The score includes counting the documents of the request by {@link ReplayHttpClient}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BulkBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    private int documents;
+
+    /**
+     * 0 means no errors, 1 means that all documents fail.
+     */
+    @Param({ "0", "1000", "1" })
+    private int errorEvery;
+
+    private BenchmarkRepository repository;
+
+    private List<Map<String, Object>> batch;
+
+    @Setup
+    public void setup() {
+        ReplayHttpClient client = new ReplayHttpClient();
+        client.setErrorEvery(errorEvery);
+        repository = new BenchmarkRepository(client);
+        batch = Fixtures.documents(documents);
+    }
+
+    /**
+     * @return Returns the number of errors.
+     */
+    @Benchmark
+    public int executeBulk() {
+        try {
+            repository.executeBulk(batch);
+            return 0;
+        } catch (BulkOperationException e) {
+            return e.getErrors().size();
+        }
+    }
+
+}
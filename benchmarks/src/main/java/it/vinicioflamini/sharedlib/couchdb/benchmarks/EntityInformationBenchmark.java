@@ -0,0 +1,106 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.vinicioflamini.sharedlib.couchdb.support.GenericEntityInformation;
+import it.vinicioflamini.sharedlib.couchdb.support.SimpleEntityInformation;
+
+/**
+ * Measures the accessors of {@link GenericEntityInformation} and {@link SimpleEntityInformation}, which are called
+ * per entity by the bulk operations.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityInformationBenchmark {
+
+    /**
+     * The revision is found with the last of the properties that {@link GenericEntityInformation} tries.
+     */
+    public static class Entity {
+
+        private String id;
+
+        private String revision;
+
+    }
+
+    private GenericEntityInformation<Entity, String> entityInformation = new GenericEntityInformation<>(
+            Entity.class, String.class);
+
+    @SuppressWarnings("rawtypes")
+    private GenericEntityInformation<Map, String> mapInformation = new GenericEntityInformation<>(Map.class,
+            String.class);
+
+    private SimpleEntityInformation<Entity> simpleInformation = new SimpleEntityInformation<>(Entity.class, "id",
+            "revision");
+
+    private Entity entity = new Entity();
+
+    private Map<String, Object> map = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        entity.id = "Tavolo 1";
+        entity.revision = "1-0f9e8d7c6b5a49382716f5e4d3c2b1a0";
+        map.put("_id", entity.id);
+        map.put("_rev", entity.revision);
+    }
+
+    @Benchmark
+    public String getCouchId() {
+        return entityInformation.getCouchId(entity);
+    }
+
+    @Benchmark
+    public String getRev() {
+        return entityInformation.getRev(entity);
+    }
+
+    @Benchmark
+    public Entity setIdAndRev() {
+        entityInformation.setId(entity, "Tavolo 1");
+        entityInformation.setRev(entity, "2-7a1c9e3b5d2f4a6c8e0b1d3f5a7c9e1b");
+        return entity;
+    }
+
+    @Benchmark
+    public boolean isNew() {
+        return entityInformation.isNew(entity);
+    }
+
+    @Benchmark
+    public String getRevOfMap() {
+        return mapInformation.getRev(map);
+    }
+
+    @Benchmark
+    public Map<String, Object> setRevOfMap() {
+        mapInformation.setRev(map, "2-7a1c9e3b5d2f4a6c8e0b1d3f5a7c9e1b");
+        return map;
+    }
+
+    @Benchmark
+    public String getRevSimple() {
+        return simpleInformation.getRev(entity);
+    }
+
+}
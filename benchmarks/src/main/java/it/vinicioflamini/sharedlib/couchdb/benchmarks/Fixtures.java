@@ -0,0 +1,123 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Builds responses of any size from the responses in the resources <i>fixtures</i>. These have been written by hand in
+ * the format of the CouchDB responses, i.e. the revisions are made up. The rows are repeated with unique document IDs.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public final class Fixtures {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Fixtures() {
+    }
+
+    /**
+     * Builds the response of the view <i>by_manufacturerId</i>.
+     *
+     * @param rows the number of rows
+     * @param includeDocs true if the rows shall contain the documents
+     * @return Returns the JSON response.
+     */
+    public static byte[] viewResponse(int rows, boolean includeDocs) {
+        JsonNode fixture = read("by_manufacturerId.json");
+        List<JsonNode> fixtureRows = new ArrayList<>();
+        fixture.get("rows").forEach(fixtureRows::add);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeNumberField("total_rows", rows);
+            generator.writeNumberField("offset", 0);
+            generator.writeNumberField("update_seq", fixture.get("update_seq").asLong());
+            generator.writeArrayFieldStart("rows");
+            for (int i = 0; i < rows; i++) {
+                ObjectNode row = fixtureRows.get(i % fixtureRows.size()).deepCopy();
+                String id = row.get("id").asText() + "-" + i;
+                row.put("id", id);
+                ((ObjectNode) row.get("value").get("facts")).put("docId", id);
+                if (includeDocs) {
+                    ((ObjectNode) row.get("doc")).put("_id", id);
+                } else {
+                    row.remove("doc");
+                }
+                generator.writeTree(row);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds the response of a bulk request.
+     *
+     * @param documents the number of documents in the request
+     * @param errorEvery 0 or every n-th document fails with a conflict
+     * @return Returns the JSON response.
+     */
+    public static byte[] bulkResponse(int documents, int errorEvery) {
+        JsonNode fixture = read("bulk_docs.json");
+        JsonNode success = fixture.get(0);
+        JsonNode conflict = fixture.get(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (int i = 0; i < documents; i++) {
+                boolean failed = errorEvery > 0 && i % errorEvery == errorEvery - 1;
+                ObjectNode row = (failed ? conflict : success).deepCopy();
+                row.put("id", "doc-" + i);
+                generator.writeTree(row);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates documents for a bulk request.
+     *
+     * @param documents the number of documents
+     * @return Returns the documents, each as a map.
+     */
+    public static List<Map<String, Object>> documents(int documents) {
+        JsonNode fixture = read("by_manufacturerId.json");
+        List<Map<String, Object>> result = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            JsonNode doc = fixture.get("rows").get(i % fixture.get("rows").size()).get("doc");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = objectMapper.convertValue(doc, HashMap.class);
+            map.put("_id", "doc-" + i);
+            result.add(map);
+        }
+        return result;
+    }
+
+    private static JsonNode read(String fixture) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + fixture)) {
+            return objectMapper.readTree(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.HttpEntity;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * This {@link HttpClient} replays fixtures instead of sending requests, i.e. the benchmarks measure only the client
+ * side.
+ * <p>
+ * Queries are answered with the given view response. Bulk requests are serialized like by a real client and answered
+ * with one result per document, see {@link Fixtures#bulkResponse(int, int)}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ReplayHttpClient implements HttpClient {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private byte[] viewResponse = "{\"total_rows\":0,\"offset\":0,\"rows\":[]}".getBytes();
+
+    private int errorEvery;
+
+    private final Map<Integer, byte[]> bulkResponses = new ConcurrentHashMap<>();
+
+    public void setViewResponse(byte[] viewResponse) {
+        this.viewResponse = viewResponse;
+    }
+
+    /**
+     * @param errorEvery 0 or every n-th document of a bulk request fails with a conflict
+     */
+    public void setErrorEvery(int errorEvery) {
+        this.errorEvery = errorEvery;
+        bulkResponses.clear();
+    }
+
+    @Override
+    public HttpResponse get(String uri) {
+        return getUncached(uri);
+    }
+
+    @Override
+    public HttpResponse get(String uri, Map<String, String> headers) {
+        return getUncached(uri);
+    }
+
+    @Override
+    public HttpResponse getUncached(String uri) {
+        return new ReplayHttpResponse(uri, 200, viewResponse);
+    }
+
+    @Override
+    public HttpResponse postUncached(String uri, String content) {
+        return getUncached(uri);
+    }
+
+    @Override
+    public HttpResponse post(String uri, HttpEntity entity) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        try {
+            entity.writeTo(request);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return post(uri, new ByteArrayInputStream(request.toByteArray()));
+    }
+
+    @Override
+    public HttpResponse post(String uri, InputStream content) {
+        int documents = countDocuments(content);
+        byte[] response = bulkResponses.computeIfAbsent(documents, n -> Fixtures.bulkResponse(n, errorEvery));
+        return new ReplayHttpResponse(uri, 201, response);
+    }
+
+    @Override
+    public HttpResponse post(String uri, String content) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse put(String uri, String content) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse put(String uri) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse put(String uri, InputStream data, String contentType, long contentLength) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse put(String uri, HttpEntity entity) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse delete(String uri) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse head(String uri) {
+        throw new UnsupportedOperationException(uri);
+    }
+
+    @Override
+    public HttpResponse copy(String sourceUri, String destination) {
+        throw new UnsupportedOperationException(sourceUri);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Counts the documents of a bulk request <code>{"docs":[...]}</code>.
+     */
+    private int countDocuments(InputStream request) {
+        int documents = 0;
+        try (JsonParser parser = jsonFactory.createParser(request)) {
+            while (parser.nextToken() != null) {
+                if (parser.getCurrentToken() == JsonToken.FIELD_NAME && "docs".equals(parser.getCurrentName())) {
+                    parser.nextToken();
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        documents++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return documents;
+    }
+
+}
@@ -0,0 +1,71 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.ektorp.http.HttpResponse;
+
+/**
+ * A response whose content is held in memory.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ReplayHttpResponse implements HttpResponse {
+
+    private final String requestUri;
+
+    private final int code;
+
+    private final byte[] content;
+
+    public ReplayHttpResponse(String requestUri, int code, byte[] content) {
+        super();
+        this.requestUri = requestUri;
+        this.code = code;
+        this.content = content;
+    }
+
+    @Override
+    public boolean isSuccessful() {
+        return code < 300;
+    }
+
+    @Override
+    public int getCode() {
+        return code;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestUri;
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/json";
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public String getETag() {
+        return null;
+    }
+
+    @Override
+    public void releaseConnection() {
+    }
+
+    @Override
+    public void abort() {
+    }
+
+}
@@ -0,0 +1,70 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
+import it.vinicioflamini.sharedlib.couchdb.benchmarks.model.ProductSummary;
+import it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils;
+
+/**
+ * Measures {@link AdapterUtils#transformViewResult(ViewResult, String)} for each return type.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TransformViewResultBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    private int rows;
+
+    /**
+     * "none" stands for no return type, i.e. the view result is returned as it is.
+     */
+    @Param({ "none", "key", "value", "doc", "id" })
+    private String returnType;
+
+    private ViewResult viewResult;
+
+    @Setup
+    public void setup() {
+        ReplayHttpClient client = new ReplayHttpClient();
+        client.setViewResponse(Fixtures.viewResponse(rows, true));
+        BenchmarkRepository repository = new BenchmarkRepository(client);
+
+        ViewParams params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setKeyType(String.class);
+        params.setValueType(ProductSummary.class);
+        params.setDocumentType(Map.class);
+        viewResult = repository.find(params);
+
+        if ("none".equals(returnType)) {
+            returnType = null;
+        }
+    }
+
+    @Benchmark
+    public Object transformViewResult() {
+        return AdapterUtils.transformViewResult(viewResult, returnType);
+    }
+
+}
@@ -0,0 +1,88 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.ViewQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
+import it.vinicioflamini.sharedlib.couchdb.ektorp.EktorpCouchViewConfigurer;
+
+/**
+ * Measures {@link EktorpCouchViewConfigurer#configure(ViewQuery, ViewParams)}, optionally followed by building the
+ * query string.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ViewConfigurerBenchmark {
+
+    /**
+     * "key" is a lookup by a single key, "range" a page of a key range and "reduce" a grouped reduction.
+     */
+    @Param({ "key", "range", "reduce" })
+    private String query;
+
+    private EktorpCouchViewConfigurer configurer = new EktorpCouchViewConfigurer();
+
+    private ViewParams params = new ViewParams();
+
+    @Setup
+    public void setup() {
+        params.setView("by_manufacturerId");
+        params.setDesignDocument("Product");
+        switch (query) {
+        case "key":
+            params.setKey("Lumberjack Inc.");
+            params.setReduce(false);
+            break;
+        case "range":
+            params.setStartKey("Lumberjack Inc.");
+            params.setStartKeyDocId("Tavolo 3");
+            params.setEndKey("Lumberjack1 Inc.");
+            params.setInclusiveEnd(false);
+            params.setDescending(false);
+            params.setIncludeDocs(true);
+            params.setReduce(false);
+            params.setLimit(1001);
+            break;
+        case "reduce":
+            params.setReduce(true);
+            params.setGroup(true);
+            params.setGroupLevel(1);
+            break;
+        default:
+            throw new IllegalArgumentException(query);
+        }
+    }
+
+    @Benchmark
+    public ViewQuery configure() {
+        ViewQuery viewQuery = new ViewQuery();
+        configurer.configure(viewQuery, params);
+        return viewQuery;
+    }
+
+    @Benchmark
+    public String configureAndBuildQuery() {
+        ViewQuery viewQuery = new ViewQuery().dbPath("/products/");
+        configurer.configure(viewQuery, params);
+        return viewQuery.buildQuery();
+    }
+
+}
@@ -0,0 +1,127 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
+import it.vinicioflamini.sharedlib.couchdb.benchmarks.model.ProductSummary;
+
+/**
+ * Measures how a view response is turned into a {@link ViewResult}: the tree-based transformation of Ektorp's view
+ * result, i.e. <code>toViewResult</code> and <code>toObject</code>, compared to <code>find</code> and
+ * <code>stream</code>, which bind the rows while reading the response.
+ * <p>
+ * The time per row is the score divided by {@link #rows}. Run with <code>-prof gc</code> to get the allocation.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ViewResultBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    private int rows;
+
+    @Param({ "false", "true" })
+    private boolean includeDocs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] response;
+
+    private BenchmarkRepository repository;
+
+    private ViewParams params;
+
+    /**
+     * Ektorp's view result, parsed in advance for {@link ViewResultBenchmark#toObject(ParsedResult, Blackhole)}.
+     */
+    @State(Scope.Benchmark)
+    public static class ParsedResult {
+
+        private org.ektorp.ViewResult viewResult;
+
+        @Setup
+        public void setup(ViewResultBenchmark benchmark) throws IOException {
+            viewResult = benchmark.parse();
+        }
+
+    }
+
+    @Setup
+    public void setup() {
+        response = Fixtures.viewResponse(rows, includeDocs);
+
+        ReplayHttpClient client = new ReplayHttpClient();
+        client.setViewResponse(response);
+        repository = new BenchmarkRepository(client);
+
+        params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setReduce(false);
+        params.setIncludeDocs(includeDocs);
+        params.setKeyType(String.class);
+        params.setValueType(ProductSummary.class);
+        params.setDocumentType(includeDocs ? Map.class : null);
+    }
+
+    /**
+     * The former implementation of <code>find</code>: Ektorp parses the response to a tree, then the key, the value and
+     * the document of each row are converted.
+     */
+    @Benchmark
+    public ViewResult toViewResult() throws IOException {
+        return repository.toViewResult(parse(), params);
+    }
+
+    @Benchmark
+    public void toObject(ParsedResult parsed, Blackhole blackhole) {
+        for (org.ektorp.ViewResult.Row row : parsed.viewResult.getRows()) {
+            blackhole.consume(repository.toObject(row.getKeyAsNode(), String.class));
+            blackhole.consume(repository.toObject(row.getValueAsNode(), ProductSummary.class));
+            if (includeDocs) {
+                blackhole.consume(repository.toObject(row.getDocAsNode(), Map.class));
+            }
+        }
+    }
+
+    @Benchmark
+    public ViewResult find() {
+        return repository.find(params);
+    }
+
+    @Benchmark
+    public void stream(Blackhole blackhole) {
+        try (Stream<ViewResultRow> stream = repository.stream(params)) {
+            stream.forEach(blackhole::consume);
+        }
+    }
+
+    private org.ektorp.ViewResult parse() throws IOException {
+        return new org.ektorp.ViewResult(objectMapper.readTree(response), false);
+    }
+
+}
@@ -0,0 +1,124 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks.model;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The facts of a product as emitted by the view <i>by_manufacturerId</i> of the fixture.
+ * 
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ProductFacts {
+
+    private String docId;
+
+    private Date lastModification;
+
+    private String text;
+
+    private String rating;
+
+    private boolean hidden;
+
+    private double weight;
+
+    private BigDecimal price;
+
+    private List<String> tags;
+
+    private int isoProductCode;
+
+    private String revision;
+
+    private String manufacturerId;
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public void setDocId(String docId) {
+        this.docId = docId;
+    }
+
+    public Date getLastModification() {
+        return lastModification;
+    }
+
+    public void setLastModification(Date lastModification) {
+        this.lastModification = lastModification;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public String getRating() {
+        return rating;
+    }
+
+    public void setRating(String rating) {
+        this.rating = rating;
+    }
+
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    public void setHidden(boolean hidden) {
+        this.hidden = hidden;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public void setWeight(double weight) {
+        this.weight = weight;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public int getIsoProductCode() {
+        return isoProductCode;
+    }
+
+    public void setIsoProductCode(int isoProductCode) {
+        this.isoProductCode = isoProductCode;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    public void setRevision(String revision) {
+        this.revision = revision;
+    }
+
+    public String getManufacturerId() {
+        return manufacturerId;
+    }
+
+    public void setManufacturerId(String manufacturerId) {
+        this.manufacturerId = manufacturerId;
+    }
+
+}
@@ -0,0 +1,20 @@
+package it.vinicioflamini.sharedlib.couchdb.benchmarks.model;
+
+/**
+ * The value emitted by the view <i>by_manufacturerId</i> of the fixture.
+ * 
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ProductSummary {
+
+    private ProductFacts facts;
+
+    public ProductFacts getFacts() {
+        return facts;
+    }
+
+    public void setFacts(ProductFacts facts) {
+        this.facts = facts;
+    }
+
+}
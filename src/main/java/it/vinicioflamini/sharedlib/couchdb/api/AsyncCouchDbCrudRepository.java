@@ -0,0 +1,48 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The non-blocking counterpart of {@link CouchDbCrudRepository}. Each method returns at once and completes its
+ * {@link CompletableFuture} when the response of the database has been read, i.e. independent requests can be sent
+ * concurrently:
+ * <code>
+    CompletableFuture&lt;Optional&lt;Product&gt;&gt; product = repository.findById(productId);
+    CompletableFuture&lt;ProductSummary&gt; summary = repository.find(summaryParams);
+    CompletableFuture.allOf(product, summary).join();
+ </code>
+ * <p>
+ * A future completes exceptionally with the exception the blocking method would have thrown, or with a
+ * {@link java.util.concurrent.RejectedExecutionException} if the request cannot be queued.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ * @param <T> See type parameter in {@link CouchDbCrudRepository}
+ * @param <I> See type parameter in {@link CouchDbCrudRepository}
+ */
+public interface AsyncCouchDbCrudRepository<T, I extends Serializable> {
+
+    <S extends T> CompletableFuture<S> save(S entity);
+
+    <S extends T> CompletableFuture<List<S>> saveAll(Iterable<S> entities);
+
+    CompletableFuture<Optional<T>> findById(I id);
+
+    CompletableFuture<List<T>> findAllById(Iterable<I> ids);
+
+    CompletableFuture<Long> count();
+
+    CompletableFuture<Void> delete(T entity);
+
+    /**
+     * See {@link CouchDbCrudRepository#find(ViewParams)}.
+     *
+     * @param viewParams the query parameters
+     * @param <R> the return type, depends on {@link ViewParams#getReturnType()}.
+     * @return Returns the future result of the query.
+     */
+    <R> CompletableFuture<R> find(ViewParams viewParams);
+
+}
@@ -0,0 +1,55 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * The content of an attachment, read from the response while the stream is read. The stream holds a connection of the
+ * database client, i.e. it must be closed, e.g. with a <i>try-with-resources</i> statement.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class AttachmentStream extends FilterInputStream {
+
+    private final String attachmentId;
+
+    private final String contentType;
+
+    private final long contentLength;
+
+    /**
+     * @param in the content
+     * @param attachmentId the name of the attachment
+     * @param contentType null or the MIME type of the attachment
+     * @param contentLength the length of the content or -1 if it is not known
+     */
+    public AttachmentStream(InputStream in, String attachmentId, String contentType, long contentLength) {
+        super(in);
+        this.attachmentId = attachmentId;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+    }
+
+    public String getAttachmentId() {
+        return attachmentId;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return Returns the length of the content in bytes or -1 if it is not known, e.g. because the attachment is sent
+     *         compressed.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String toString() {
+        return "AttachmentStream [attachmentId=" + attachmentId + ", contentType=" + contentType + ", contentLength="
+                + contentLength + "]";
+    }
+
+}
@@ -1,8 +1,23 @@
 package it.vinicioflamini.sharedlib.couchdb.api;
 
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
 
+import org.reactivestreams.Publisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.PagingAndSortingRepository;
 
 /**
  * This {@link CrudRepository} for CouchDB databases allows you to query views.
@@ -11,7 +26,128 @@ import org.springframework.data.repository.CrudRepository;
  * @param <T> See type parameter in {@link CrudRepository}
  * @param <I> See type parameter in {@link CrudRepository}
  */
-public interface CouchDbCrudRepository<T, I extends Serializable> extends CrudRepository<T, I> {
+public interface CouchDbCrudRepository<T, I extends Serializable> extends PagingAndSortingRepository<T, I> {
+
+    /**
+     * Returns all entities lazily like {@link #findAll()}, but sorted by ID.
+     * 
+     * @param sort unsorted or sorted by the property <i>id</i>, ascending or descending
+     * @throws it.vinicioflamini.sharedlib.couchdb.api.exceptions.UnsupportedViewParameterException Thrown if the
+     *             entities shall be sorted by another property.
+     */
+    @Override
+    Iterable<T> findAll(Sort sort);
+
+    /**
+     * Returns a page of the entities sorted by ID, see {@link #findAll(Sort)}. If the pageable is a
+     * {@link KeysetPageRequest} with continuation token, the page starts at the token, otherwise the entities of the
+     * previous pages are skipped. The pageable of the returned page is a {@link KeysetPageRequest}, i.e.
+     * {@link Page#nextPageable()} continues with the token of the next page.
+     * <p>
+     * Skipping the previous pages takes time proportional to their entities, i.e. a deep page requested by its number
+     * is slow. Follow the pages or keep their tokens instead.
+     * 
+     * @param pageable the page
+     * @return Returns the page. Its total is {@link #count()} when the first page without token was requested, the
+     *         following pages carry it in their tokens instead of counting again.
+     */
+    @Override
+    Page<T> findAll(Pageable pageable);
+
+    /**
+     * Checks which of the given IDs exist like {@link #existsById(Serializable)}, but with a few requests instead of
+     * one request per ID.
+     * 
+     * @param ids the IDs
+     * @return Returns the IDs of the existing entities in the order of the given IDs.
+     */
+    Set<I> existsAllById(Iterable<I> ids);
+
+    /**
+     * Checks which of the given IDs exist and returns their current revisions, see {@link #existsAllById(Iterable)}.
+     * 
+     * @param ids the IDs
+     * @return Returns the IDs of the existing entities in the order of the given IDs and their revisions.
+     */
+    Map<I, String> findRevisionsById(Iterable<I> ids);
+
+    /**
+     * Finds the documents with the given IDs regardless of the views of this repository, e.g. design documents. Each
+     * document must be readable as an entity of this repository. The documents are read with a few requests like
+     * {@link #existsAllById(Iterable)}.
+     * 
+     * @param ids the IDs
+     * @return Returns the IDs of the existing documents in the order of the given IDs and the documents.
+     */
+    Map<I, T> findAllDocumentsById(Iterable<I> ids);
+
+    /**
+     * Deletes the entities with the given IDs with a few requests instead of two requests per ID. IDs without entity
+     * are not an error. The IDs are looked up regardless of the views of this repository like
+     * {@link #findRevisionsById(Iterable)}, i.e. a document with a given ID is deleted even if it is not an entity of
+     * this repository.
+     * 
+     * @param ids the IDs
+     * @return Returns the IDs that have not been found, in the order of the given IDs.
+     * @throws it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationException Thrown if an existing entity
+     *             cannot be deleted, e.g. because of a concurrent update.
+     */
+    Set<I> deleteAllById(Iterable<I> ids);
+
+    /**
+     * Adds an attachment to the entity with the given ID or replaces it. The content is streamed to the database while
+     * it is read, i.e. it is neither encoded as base64 nor held in memory, unlike an inline attachment of
+     * {@link it.vinicioflamini.sharedlib.couchdb.model.BaseDocument}. The stream is closed when it has been sent.
+     * 
+     * @param id the ID of the entity, which is created if the revision is null
+     * @param revision null or the current revision of the entity
+     * @param attachmentId the name of the attachment
+     * @param data the content
+     * @param contentType the MIME type of the attachment
+     * @param contentLength the length of the content or -1 if it is not known, then the content is sent in chunks
+     * @return Returns the new revision of the entity.
+     */
+    String saveAttachment(I id, String revision, String attachmentId, InputStream data, String contentType,
+            long contentLength);
+
+    /**
+     * Adds an attachment like {@link #saveAttachment(Serializable, String, String, InputStream, String, long)}, but
+     * reads the content from a channel. The channel is closed when it has been sent.
+     * 
+     * @return Returns the new revision of the entity.
+     */
+    String saveAttachment(I id, String revision, String attachmentId, ReadableByteChannel data, String contentType,
+            long contentLength);
+
+    /**
+     * Adds an attachment like {@link #saveAttachment(Serializable, String, String, InputStream, String, long)}, but
+     * reads the content from a file with its length as content length.
+     * 
+     * @return Returns the new revision of the entity.
+     */
+    String saveAttachment(I id, String revision, String attachmentId, Path file, String contentType);
+
+    /**
+     * Finds an attachment of the entity with the given ID. The content is read from the response while the returned
+     * stream is read.
+     * 
+     * @param id the ID of the entity
+     * @param attachmentId the name of the attachment
+     * @return Returns the content of the attachment, which must be closed, or nothing if the entity or the attachment
+     *         does not exist.
+     */
+    Optional<AttachmentStream> findAttachment(I id, String attachmentId);
+
+    /**
+     * Finds an attachment like {@link #findAttachment(Serializable, String)} and writes its content to a file. The file
+     * is created or truncated only if the attachment exists.
+     * 
+     * @param id the ID of the entity
+     * @param attachmentId the name of the attachment
+     * @param target the file
+     * @return Returns false if the entity or the attachment does not exist.
+     */
+    boolean findAttachment(I id, String attachmentId, Path target);
 
     /**
      * Queries the database with the given parameters.
@@ -22,4 +158,138 @@ public interface CouchDbCrudRepository<T, I extends Serializable> extends CrudRe
      */
     <R> R find(ViewParams viewParams);
 
+    /**
+     * Queries a slice of the rows of a view. {@link ViewParams#getReturnType()} is ignored, as are the
+     * {@link ViewParams#getSkip() skip} and {@link ViewParams#getLimit() limit} of the parameters.
+     * <p>
+     * If the pageable is a {@link KeysetPageRequest} with continuation token, the slice starts at the key and document
+     * ID encoded in the token, i.e. the cost of a slice does not depend on its position in the view. Otherwise the rows
+     * of the previous slices are skipped, which is fine for the first slices only. The token of the next slice is the
+     * one of {@link KeysetSlice#getContinuationToken()}, and {@link KeysetSlice#nextPageable()} continues with it.
+     * <p>
+     * The token is valid for views with the same parameters only, because it is the position in the view.
+     * 
+     * @param viewParams the query parameters
+     * @param pageable the slice, the sort is ignored: the rows are sorted by the view
+     * @return Returns the rows of the slice.
+     * @throws IllegalArgumentException Thrown if the continuation token is invalid.
+     */
+    KeysetSlice<ViewResultRow> findSlice(ViewParams viewParams, Pageable pageable);
+
+    /**
+     * Queries the database with the given parameters and returns the rows while they are read from the response, i.e.
+     * the result is never held in memory as a whole. {@link ViewParams#getReturnType()} is ignored.
+     * <p>
+     * The stream holds a connection to the database until the last row has been read. Close the stream if it is not
+     * consumed completely, e.g. with a <i>try-with-resources</i> statement.
+     * 
+     * @param viewParams the query parameters
+     * @return Returns the rows of the result.
+     */
+    Stream<ViewResultRow> stream(ViewParams viewParams);
+
+    /**
+     * Runs a reduce query whose values are integral, e.g. of <i>_count</i>, and returns the groups with their values
+     * in a primitive array. The query is reduced and grouped as set by {@link ViewParams#getGroup()} and
+     * {@link ViewParams#getGroupLevel()}, the keys are bound to {@link ViewParams#getKeyType()} or to plain Java objects
+     * if it is not set. {@link ViewParams#getReturnType()} and {@link ViewParams#getValueType()} are ignored.
+     * 
+     * @param viewParams the query parameters
+     * @return Returns the groups.
+     * @throws ArithmeticException Thrown if a value is not integral or does not fit into a long.
+     */
+    LongAggregates aggregateLongs(ViewParams viewParams);
+
+    /**
+     * Runs a reduce query like {@link #aggregateLongs(ViewParams)}, but passes each group to the given consumer while
+     * the response is read, i.e. the groups are never held in memory as a whole.
+     * 
+     * @param viewParams the query parameters
+     * @param consumer receives the key and the value of each group
+     */
+    void aggregateLongs(ViewParams viewParams, ObjLongConsumer<Object> consumer);
+
+    /**
+     * Runs a reduce query with numeric values, e.g. of <i>_sum</i>, like {@link #aggregateLongs(ViewParams)}.
+     * 
+     * @param viewParams the query parameters
+     * @return Returns the groups.
+     */
+    DoubleAggregates aggregateDoubles(ViewParams viewParams);
+
+    /**
+     * Runs a reduce query with numeric values like {@link #aggregateDoubles(ViewParams)}, but passes each group to the
+     * given consumer while the response is read.
+     * 
+     * @param viewParams the query parameters
+     * @param consumer receives the key and the value of each group
+     */
+    void aggregateDoubles(ViewParams viewParams, ObjDoubleConsumer<Object> consumer);
+
+    /**
+     * Runs a reduce query with the function <i>_stats</i> like {@link #aggregateLongs(ViewParams)}.
+     * 
+     * @param viewParams the query parameters
+     * @return Returns the groups.
+     */
+    StatsAggregates aggregateStats(ViewParams viewParams);
+
+    /**
+     * Runs a reduce query with the function <i>_stats</i> like {@link #aggregateStats(ViewParams)}, but passes each
+     * group to the given consumer while the response is read.
+     * 
+     * @param viewParams the query parameters
+     * @param consumer receives the key and the statistics of each group
+     */
+    void aggregateStats(ViewParams viewParams, StatsAggregates.Consumer consumer);
+
+    /**
+     * Reads all rows of a view with concurrent requests, e.g. to export a view. The key range of the parameters is
+     * split into partitions of about the same size, the split keys are sampled from the view. See
+     * {@link #parallelScan(ViewParams, List)}.
+     * 
+     * @param viewParams the query parameters, without <i>key</i>, <i>keys</i>, <i>limit</i> and <i>skip</i>
+     * @param partitions the maximum number of partitions
+     * @return Returns a parallel stream of the rows.
+     */
+    Stream<ViewResultRow> parallelScan(ViewParams viewParams, int partitions);
+
+    /**
+     * Reads all rows of a view with concurrent requests, e.g. to export a view. The key range of the parameters is
+     * split at the given keys. The rows with a split key belong to the partition that starts at the key.
+     * {@link ViewParams#getReturnType()} is ignored.
+     * <p>
+     * The returned stream is parallel and each partition is read with its own request, i.e. the number of concurrent
+     * requests is the parallelism of the stream, which must not exceed the size of the connection pool. The encounter
+     * order of the stream is the order of the view: collect the rows or use {@link Stream#forEachOrdered(
+     * java.util.function.Consumer)} to get them in key order, and use {@link Stream#forEach(
+     * java.util.function.Consumer)} or {@link Stream#unordered()} if the order does not matter.
+     * <p>
+     * Close the stream if it is not consumed completely, e.g. with a <i>try-with-resources</i> statement.
+     * 
+     * @param viewParams the query parameters, without <i>key</i>, <i>keys</i>, <i>limit</i> and <i>skip</i>
+     * @param splitKeys the keys that split the range, in the order of the view
+     * @return Returns a parallel stream of the rows.
+     */
+    Stream<ViewResultRow> parallelScan(ViewParams viewParams, List<?> splitKeys);
+
+    /**
+     * Queries the database with the given parameters when the first row is requested and emits the rows while they
+     * are read from the response, but only as fast as they are requested. {@link ViewParams#getReturnType()} is
+     * ignored.
+     * <p>
+     * The rows are read by the thread that requests them. The request is aborted when the subscription is cancelled.
+     * 
+     * @param viewParams the query parameters
+     * @return Returns a publisher of the rows of the result, which queries the database for each subscriber.
+     */
+    Publisher<ViewResultRow> publish(ViewParams viewParams);
+
+    /**
+     * Emits all entities like {@link #findAll()}, but loads the next page only when its entities are requested.
+     * 
+     * @return Returns a publisher of all entities, which reads them for each subscriber.
+     */
+    Publisher<T> publishAll();
+
 }
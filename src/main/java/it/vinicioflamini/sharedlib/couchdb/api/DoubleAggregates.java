@@ -0,0 +1,79 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The groups of a reduce query with numeric values, e.g. of <i>_sum</i>. The values are held in a primitive array
+ * instead of a row object per group.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class DoubleAggregates {
+
+    private final List<Object> keys = new ArrayList<>();
+
+    private double[] values = new double[16];
+
+    /**
+     * Appends a group.
+     */
+    public void add(Object key, double value) {
+        if (keys.size() == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[keys.size()] = value;
+        keys.add(key);
+    }
+
+    /**
+     * @return Returns the number of groups.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return Returns the keys of the groups. The key of an ungrouped query is null.
+     */
+    public List<Object> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    public Object getKey(int index) {
+        return keys.get(index);
+    }
+
+    public double getValue(int index) {
+        if (index < 0 || index >= keys.size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + keys.size());
+        }
+        return values[index];
+    }
+
+    /**
+     * @return Returns a copy of the values in the order of the keys.
+     */
+    public double[] getValues() {
+        return Arrays.copyOf(values, keys.size());
+    }
+
+    /**
+     * @return Returns the sum of the values.
+     */
+    public double getTotal() {
+        double total = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            total += values[i];
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleAggregates [keys=" + keys + ", values=" + Arrays.toString(getValues()) + "]";
+    }
+
+}
@@ -0,0 +1,142 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.util.Objects;
+
+import org.springframework.data.domain.AbstractPageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.util.Assert;
+
+/**
+ * This page request continues after the previous page with a continuation token instead of skipping the rows of the
+ * previous pages. The token is opaque, it encodes the key and the document ID of the first row of the page.
+ * <p>
+ * Without token, the rows of the previous pages are skipped, i.e. the database still walks through all of them. Thus
+ * a deep page should be requested with a token, e.g. by following the pages, instead of a page number.
+ * <p>
+ * The pages returned by a {@link CouchDbCrudRepository} know the token of the next page, i.e. {@link #next()} of their
+ * {@link org.springframework.data.domain.Slice#getPageable() pageable} and
+ * {@link org.springframework.data.domain.Slice#nextPageable()} continue with the token. The page number is only
+ * informational if there is a token.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class KeysetPageRequest extends AbstractPageRequest {
+
+    private static final long serialVersionUID = -2213146081475339027L;
+
+    private final Sort sort;
+
+    private final String continuationToken;
+
+    private final String nextContinuationToken;
+
+    /**
+     * @param page the number of the page, zero-based
+     * @param size the number of rows of the page
+     * @param sort the sort order
+     * @param continuationToken null or the token of the page, see {@link KeysetSlice#getContinuationToken()}
+     */
+    public KeysetPageRequest(int page, int size, Sort sort, String continuationToken) {
+        this(page, size, sort, continuationToken, null);
+    }
+
+    private KeysetPageRequest(int page, int size, Sort sort, String continuationToken, String nextContinuationToken) {
+        super(page, size);
+        Assert.notNull(sort, "The sort must not be null.");
+        this.sort = sort;
+        this.continuationToken = continuationToken;
+        this.nextContinuationToken = nextContinuationToken;
+    }
+
+    /**
+     * @param size the number of rows of the page
+     * @param continuationToken null for the first page or the token of the page
+     * @return Returns the request of the page.
+     */
+    public static KeysetPageRequest of(int size, String continuationToken) {
+        return new KeysetPageRequest(0, size, Sort.unsorted(), continuationToken);
+    }
+
+    /**
+     * @return Returns the given pageable if it is a {@link KeysetPageRequest}, otherwise an equal request without
+     *         token.
+     */
+    public static KeysetPageRequest of(Pageable pageable) {
+        if (pageable instanceof KeysetPageRequest) {
+            return (KeysetPageRequest) pageable;
+        }
+        return new KeysetPageRequest(pageable.getPageNumber(), pageable.getPageSize(), pageable.getSort(), null);
+    }
+
+    @Override
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return Returns null or the token of this page.
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * @return Returns null or the token of the next page, which is known when the page has been read.
+     */
+    public String getNextContinuationToken() {
+        return nextContinuationToken;
+    }
+
+    /**
+     * @return Returns a copy of this request that knows the token of the next page.
+     */
+    public KeysetPageRequest withNextContinuationToken(String nextContinuationToken) {
+        return new KeysetPageRequest(getPageNumber(), getPageSize(), getSort(), continuationToken,
+                nextContinuationToken);
+    }
+
+    @Override
+    public Pageable next() {
+        return new KeysetPageRequest(getPageNumber() + 1, getPageSize(), getSort(), nextContinuationToken);
+    }
+
+    /**
+     * @return Returns the request of the previous page, without token, i.e. its rows are skipped.
+     */
+    @Override
+    public Pageable previous() {
+        return getPageNumber() == 0 ? this : new KeysetPageRequest(getPageNumber() - 1, getPageSize(), getSort(),
+                null);
+    }
+
+    @Override
+    public Pageable first() {
+        return new KeysetPageRequest(0, getPageSize(), getSort(), null);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof KeysetPageRequest)) {
+            return false;
+        }
+        KeysetPageRequest other = (KeysetPageRequest) obj;
+        return super.equals(obj) && sort.equals(other.sort) && Objects.equals(continuationToken,
+                other.continuationToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * super.hashCode() + sort.hashCode()) + Objects.hashCode(continuationToken);
+    }
+
+    @Override
+    public String toString() {
+        return "KeysetPageRequest [page=" + getPageNumber() + ", size=" + getPageSize() + ", sort=" + getSort()
+                + ", continuationToken=" + continuationToken + "]";
+    }
+
+}
@@ -0,0 +1,33 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.util.List;
+
+import org.springframework.data.domain.SliceImpl;
+
+/**
+ * A slice of a view that knows where the next slice starts, see {@link KeysetPageRequest}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ * @param <E> the type of the elements
+ */
+public class KeysetSlice<E> extends SliceImpl<E> {
+
+    private static final long serialVersionUID = 6350617389306470376L;
+
+    /**
+     * @param content the elements
+     * @param pageable the request of this slice, which knows the token of the next slice
+     */
+    public KeysetSlice(List<E> content, KeysetPageRequest pageable) {
+        super(content, pageable, pageable.getNextContinuationToken() != null);
+    }
+
+    /**
+     * @return Returns null if this is the last slice, otherwise the opaque token of the next slice, see
+     *         {@link KeysetPageRequest#of(int, String)}.
+     */
+    public String getContinuationToken() {
+        return ((KeysetPageRequest) getPageable()).getNextContinuationToken();
+    }
+
+}
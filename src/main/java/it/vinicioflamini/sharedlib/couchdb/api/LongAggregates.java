@@ -0,0 +1,84 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The groups of a reduce query whose values are integral, e.g. of <i>_count</i> or of <i>_sum</i> over integers. The
+ * values are held in a primitive array instead of a row object per group.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class LongAggregates {
+
+    private final List<Object> keys = new ArrayList<>();
+
+    private long[] values = new long[16];
+
+    /**
+     * Appends a group.
+     */
+    public void add(Object key, long value) {
+        if (keys.size() == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[keys.size()] = value;
+        keys.add(key);
+    }
+
+    /**
+     * @return Returns the number of groups.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return Returns the keys of the groups. The key of an ungrouped query is null.
+     */
+    public List<Object> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    public Object getKey(int index) {
+        return keys.get(index);
+    }
+
+    public long getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * @return Returns a copy of the values in the order of the keys.
+     */
+    public long[] getValues() {
+        return Arrays.copyOf(values, keys.size());
+    }
+
+    /**
+     * @return Returns the sum of the values.
+     * @throws ArithmeticException Thrown if the sum overflows.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            total = Math.addExact(total, values[i]);
+        }
+        return total;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= keys.size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + keys.size());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongAggregates [keys=" + keys + ", values=" + Arrays.toString(getValues()) + "]";
+    }
+
+}
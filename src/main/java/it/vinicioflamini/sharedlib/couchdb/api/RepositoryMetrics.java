@@ -0,0 +1,75 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+/**
+ * Records what a {@link CouchDbCrudRepository} is doing. The methods are called by the threads that perform the
+ * operations, i.e. implementations must be thread-safe and fast. All methods do nothing by default, so that an
+ * implementation only overrides what it records.
+ * <p>
+ * The tags are the simple name of the entity type, the design document and the view. The design document is empty and
+ * the view is <i>_all_docs</i> if documents are looked up by their IDs.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ * @see it.vinicioflamini.sharedlib.couchdb.support.MicrometerRepositoryMetrics
+ */
+public interface RepositoryMetrics {
+
+    /**
+     * Records nothing. The repository does not even measure anything, see {@link #isEnabled()}.
+     */
+    RepositoryMetrics NONE = new RepositoryMetrics() {
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+    };
+
+    /**
+     * @return Returns false if nothing is recorded, i.e. the repository skips the measurements.
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Records a call of a repository method.
+     *
+     * @param entityType the simple name of the entity type
+     * @param operation the name of the method, e.g. <i>save</i>
+     * @param nanos the duration
+     * @param error null or the exception thrown by the method
+     */
+    default void recordOperation(String entityType, String operation, long nanos, Throwable error) {
+    }
+
+    /**
+     * Records the reading of a view result. It is recorded when the result has been read completely or when the reading
+     * has been aborted.
+     *
+     * @param entityType the simple name of the entity type
+     * @param designDoc the ID of the design document
+     * @param view the name of the view
+     * @param rows the number of rows read
+     * @param bytesSent the size of the request body, i.e. of the keys, or 0
+     * @param bytesReceived the size of the response body read
+     * @param networkNanos the time waiting for the response and for its body
+     * @param deserializationNanos the time parsing the body and binding the rows
+     */
+    default void recordView(String entityType, String designDoc, String view, long rows, long bytesSent,
+            long bytesReceived, long networkNanos, long deserializationNanos) {
+    }
+
+    /**
+     * Records a single bulk request.
+     *
+     * @param entityType the simple name of the entity type
+     * @param documents the number of documents of the batch
+     * @param errors the number of documents that could not be written
+     * @param bytesSent the size of the serialized documents of the batch or -1 if it is not known
+     * @param nanos the duration of the request, including the serialization of the documents
+     */
+    default void recordBulkBatch(String entityType, int documents, int errors, long bytesSent, long nanos) {
+    }
+
+}
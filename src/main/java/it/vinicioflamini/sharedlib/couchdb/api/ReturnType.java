@@ -0,0 +1,75 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+/**
+ * The return types of {@link CouchDbCrudRepository#find(ViewParams)}, see {@link ViewParams#getReturnType()}. Except
+ * for {@link #RESULT}, the rows are projected to a single field, i.e. the other fields need not be read.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public enum ReturnType {
+
+    /** the {@link ViewResult} */
+    RESULT(null),
+
+    /** the list of the keys */
+    KEY("key"),
+
+    /** the list of the values */
+    VALUE("value"),
+
+    /** the list of the documents */
+    DOC("doc"),
+
+    /** the list of the document IDs */
+    ID("id");
+
+    private final String name;
+
+    private ReturnType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return Returns the name used by {@link ViewParams#setReturnType(String)}, null for {@link #RESULT}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Returns the field of the given row that this return type projects to.
+     * @throws UnsupportedOperationException Thrown for {@link #RESULT}, which is not a projection.
+     */
+    public Object project(ViewResultRow row) {
+        switch (this) {
+        case KEY:
+            return row.getKey();
+        case VALUE:
+            return row.getValue();
+        case DOC:
+            return row.getDoc();
+        case ID:
+            return row.getId();
+        default:
+            throw new UnsupportedOperationException("the view result is not a projection");
+        }
+    }
+
+    /**
+     * @param name null or "key" or "value" or "doc" or "id"
+     * @return Returns the return type with the given name, {@link #RESULT} if the name is null.
+     * @throws IllegalArgumentException Thrown if the name is not supported.
+     */
+    public static ReturnType of(String name) {
+        if (name == null) {
+            return RESULT;
+        }
+        for (ReturnType returnType : values()) {
+            if (name.equals(returnType.name)) {
+                return returnType;
+            }
+        }
+        throw new IllegalArgumentException("not supported return type: " + name);
+    }
+
+}
@@ -0,0 +1,159 @@
+package it.vinicioflamini.sharedlib.couchdb.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The groups of a reduce query with the function <i>_stats</i>. The statistics are held in primitive arrays, one per
+ * field, instead of a row object per group.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class StatsAggregates {
+
+    /**
+     * Receives the statistics of a group while they are read.
+     */
+    @FunctionalInterface
+    public interface Consumer {
+
+        /**
+         * @param key null or the key of the group
+         */
+        void accept(Object key, long count, double sum, double min, double max, double sumsqr);
+
+    }
+
+    private final List<Object> keys = new ArrayList<>();
+
+    private long[] counts = new long[16];
+
+    private double[] sums = new double[16];
+
+    private double[] mins = new double[16];
+
+    private double[] maxs = new double[16];
+
+    private double[] sumsqrs = new double[16];
+
+    /**
+     * Appends a group, see {@link Consumer}.
+     */
+    public void add(Object key, long count, double sum, double min, double max, double sumsqr) {
+        int size = keys.size();
+        if (size == counts.length) {
+            counts = Arrays.copyOf(counts, size * 2);
+            sums = Arrays.copyOf(sums, size * 2);
+            mins = Arrays.copyOf(mins, size * 2);
+            maxs = Arrays.copyOf(maxs, size * 2);
+            sumsqrs = Arrays.copyOf(sumsqrs, size * 2);
+        }
+        counts[size] = count;
+        sums[size] = sum;
+        mins[size] = min;
+        maxs[size] = max;
+        sumsqrs[size] = sumsqr;
+        keys.add(key);
+    }
+
+    /**
+     * @return Returns the number of groups.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return Returns the keys of the groups. The key of an ungrouped query is null.
+     */
+    public List<Object> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    public Object getKey(int index) {
+        return keys.get(index);
+    }
+
+    public long getCount(int index) {
+        checkIndex(index);
+        return counts[index];
+    }
+
+    public double getSum(int index) {
+        checkIndex(index);
+        return sums[index];
+    }
+
+    public double getMin(int index) {
+        checkIndex(index);
+        return mins[index];
+    }
+
+    public double getMax(int index) {
+        checkIndex(index);
+        return maxs[index];
+    }
+
+    public double getSumsqr(int index) {
+        checkIndex(index);
+        return sumsqrs[index];
+    }
+
+    /**
+     * @return Returns the mean of the group, NaN if the group is empty.
+     */
+    public double getMean(int index) {
+        checkIndex(index);
+        return counts[index] == 0 ? Double.NaN : sums[index] / counts[index];
+    }
+
+    /**
+     * @return Returns a copy of the counts in the order of the keys.
+     */
+    public long[] getCounts() {
+        return Arrays.copyOf(counts, keys.size());
+    }
+
+    /**
+     * @return Returns a copy of the sums in the order of the keys.
+     */
+    public double[] getSums() {
+        return Arrays.copyOf(sums, keys.size());
+    }
+
+    /**
+     * @return Returns a copy of the minimums in the order of the keys.
+     */
+    public double[] getMins() {
+        return Arrays.copyOf(mins, keys.size());
+    }
+
+    /**
+     * @return Returns a copy of the maximums in the order of the keys.
+     */
+    public double[] getMaxs() {
+        return Arrays.copyOf(maxs, keys.size());
+    }
+
+    /**
+     * @return Returns a copy of the sums of the squares in the order of the keys.
+     */
+    public double[] getSumsqrs() {
+        return Arrays.copyOf(sumsqrs, keys.size());
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= keys.size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + keys.size());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StatsAggregates [keys=" + keys + ", counts=" + Arrays.toString(getCounts()) + ", sums=" + Arrays
+                .toString(getSums()) + "]";
+    }
+
+}
@@ -1,5 +1,7 @@
 package it.vinicioflamini.sharedlib.couchdb.api;
 
+import java.util.List;
+
 import it.vinicioflamini.sharedlib.couchdb.api.exceptions.UnsupportedViewParameterException;
 
 /**
@@ -44,6 +46,12 @@ public class ViewParams {
 
     private Object key;
 
+    /**
+     * The keys of a multi-key query. They are sent in the body of a POST request, the rows are returned in the order
+     * of the keys.
+     */
+    private List<?> keys;
+
     private Integer limit;
 
     private Boolean reduce;
@@ -89,7 +97,8 @@ public class ViewParams {
 
     /**
      * If null, then the return type of the query will be {@link ViewResult}. If "value" or "key" or "doc" or "id"
-     * then a list of values or keys or documents or document IDs will be returned.
+     * then a list of values or keys or documents or document IDs will be returned, see {@link ReturnType}. Only the
+     * returned field of the rows is decoded.
      */
     private String returnType;
 
@@ -181,6 +190,14 @@ public class ViewParams {
         this.key = key;
     }
 
+    public List<?> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(List<?> keys) {
+        this.keys = keys;
+    }
+
     public Integer getLimit() {
         return limit;
     }
@@ -290,11 +307,11 @@ public class ViewParams {
         return "ViewParams [conflicts=" + conflicts + ", descending=" + descending + ", endKey=" + endKey
                 + ", endKeyDocId=" + endKeyDocId + ", group=" + group + ", groupLevel=" + groupLevel + ", includeDocs="
                 + includeDocs + ", attachments=" + attachments + ", attEncodingInfo=" + attEncodingInfo
-                + ", inclusiveEnd=" + inclusiveEnd + ", key=" + key + ", limit=" + limit + ", reduce=" + reduce
-                + ", skip=" + skip + ", stale=" + stale + ", startKey=" + startKey + ", startKeyDocId=" + startKeyDocId
-                + ", updateSeq=" + updateSeq + ", designDocument=" + designDocument + ", view=" + view + ", keyType="
-                + keyType + ", valueType=" + valueType + ", documentType=" + documentType + ", returnType="
-                + returnType + "]";
+                + ", inclusiveEnd=" + inclusiveEnd + ", key=" + key + ", keys=" + keys + ", limit=" + limit
+                + ", reduce=" + reduce + ", skip=" + skip + ", stale=" + stale + ", startKey=" + startKey
+                + ", startKeyDocId=" + startKeyDocId + ", updateSeq=" + updateSeq + ", designDocument="
+                + designDocument + ", view=" + view + ", keyType=" + keyType + ", valueType=" + valueType
+                + ", documentType=" + documentType + ", returnType=" + returnType + "]";
     }
 
 }
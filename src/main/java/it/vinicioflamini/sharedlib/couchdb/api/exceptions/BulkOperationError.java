@@ -15,6 +15,11 @@ public class BulkOperationError {
 
     private String reason;
 
+    /**
+     * The index of the bulk request that contained the document, starting with 0.
+     */
+    private int batch;
+
     public BulkOperationError() {
         super();
     }
@@ -27,6 +32,11 @@ public class BulkOperationError {
         this.reason = reason;
     }
 
+    public BulkOperationError(String id, String rev, String error, String reason, int batch) {
+        this(id, rev, error, reason);
+        this.batch = batch;
+    }
+
     public String getId() {
         return id;
     }
@@ -59,8 +69,17 @@ public class BulkOperationError {
         this.reason = reason;
     }
 
+    public int getBatch() {
+        return batch;
+    }
+
+    public void setBatch(int batch) {
+        this.batch = batch;
+    }
+
     @Override
     public String toString() {
-        return "BulkOperationError [id=" + id + ", rev=" + rev + ", error=" + error + ", reason=" + reason + "]";
+        return "BulkOperationError [id=" + id + ", rev=" + rev + ", error=" + error + ", reason=" + reason
+                + ", batch=" + batch + "]";
     }
 }
@@ -0,0 +1,202 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.io.IOException;
+
+import org.ektorp.ViewResultException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.POJONode;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
+
+/**
+ * This internal class binds a row of a reduce result like {@link ViewRowBinder}, but decodes the value into primitive
+ * fields of the binder instead of an object. Thus the value of a row must be read from the binder before the next row
+ * is bound.
+ * <p>
+ * Integral values are read without loss, i.e. a value that does not fit into a long is an error instead of wrapping
+ * around.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class AggregateRowBinder implements ViewResultReader.RowBinder {
+
+    /**
+     * The type of the reduced values.
+     */
+    public enum ValueType {
+        /** an integral number, e.g. of <i>_count</i> */
+        LONG,
+        /** a number, e.g. of <i>_sum</i> */
+        DOUBLE,
+        /** the object of <i>_stats</i> */
+        STATS
+    }
+
+    private final ObjectReader keyReader;
+
+    private final ValueType valueType;
+
+    private long longValue;
+
+    private double doubleValue;
+
+    private long count;
+
+    private double sum;
+
+    private double min;
+
+    private double max;
+
+    private double sumsqr;
+
+    /**
+     * @param keyReader the reader of the key
+     * @param valueType the type of the values
+     */
+    public AggregateRowBinder(ObjectReader keyReader, ValueType valueType) {
+        super();
+        this.keyReader = keyReader;
+        this.valueType = valueType;
+    }
+
+    @Override
+    public ViewResultRow bind(JsonParser parser) throws IOException {
+        ViewResultRow row = new ViewResultRow();
+        String error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+            case "key":
+                if (parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+                    row.setKey(keyReader.readValue(parser));
+                }
+                break;
+            case "value":
+                readValue(parser);
+                break;
+            case "error":
+                error = parser.getValueAsString();
+                break;
+            default:
+                parser.skipChildren();
+            }
+        }
+        if (error != null) {
+            throw new ViewResultException(new POJONode(row.getKey()), error);
+        }
+        return row;
+    }
+
+    private void readValue(JsonParser parser) throws IOException {
+        switch (valueType) {
+        case LONG:
+            longValue = readLong(parser);
+            break;
+        case DOUBLE:
+            doubleValue = readDouble(parser);
+            break;
+        default:
+            readStats(parser);
+        }
+    }
+
+    private void readStats(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalStateException("unexpected value " + parser.getCurrentToken() + ", _stats expected");
+        }
+        count = 0;
+        sum = 0;
+        min = 0;
+        max = 0;
+        sumsqr = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+            case "count":
+                count = readLong(parser);
+                break;
+            case "sum":
+                sum = readDouble(parser);
+                break;
+            case "min":
+                min = readDouble(parser);
+                break;
+            case "max":
+                max = readDouble(parser);
+                break;
+            case "sumsqr":
+                sumsqr = readDouble(parser);
+                break;
+            default:
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static long readLong(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                throw new ArithmeticException("value " + parser.getText() + " overflows long");
+            }
+            return parser.getLongValue();
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            double value = parser.getDoubleValue();
+            // e.g. a count in scientific notation
+            if (value != Math.rint(value) || Math.abs(value) >= 0x1p63) {
+                throw new ArithmeticException("value " + parser.getText() + " is not a long");
+            }
+            return (long) value;
+        }
+        throw new IllegalStateException("unexpected value " + token + ", number expected");
+    }
+
+    private static double readDouble(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        throw new IllegalStateException("unexpected value " + token + ", number expected");
+    }
+
+    /**
+     * @return Returns the value of the last row, see {@link ValueType#LONG}.
+     */
+    public long getLongValue() {
+        return longValue;
+    }
+
+    /**
+     * @return Returns the value of the last row, see {@link ValueType#DOUBLE}.
+     */
+    public double getDoubleValue() {
+        return doubleValue;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSumsqr() {
+        return sumsqr;
+    }
+
+}
@@ -0,0 +1,111 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * This internal class splits documents into batches for bulk requests. A batch is limited by the number of documents
+ * and by the size of the serialized documents. A single document that exceeds the size limit forms a batch on its
+ * own.
+ * <p>
+ * The documents are consumed lazily, i.e. batch by batch. If the sizes of the documents are computed, each batch knows
+ * the size of its serialized documents, see {@link Batch#getBytes()}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class BulkBatchIterator implements Iterator<List<Object>> {
+
+    private final Iterator<?> documents;
+
+    private final int maxDocuments;
+
+    private final long maxBytes;
+
+    private final ToLongFunction<Object> sizeOf;
+
+    private Object pending;
+
+    private long pendingSize;
+
+    /**
+     * @param documents the documents
+     * @param maxDocuments the maximum number of documents per batch
+     * @param maxBytes the maximum size of the serialized documents of a batch in bytes, 0 means no limit
+     * @param sizeOf null or returns the size of a serialized document, called once per document, required if there is
+     *            a size limit
+     */
+    public BulkBatchIterator(Iterator<?> documents, int maxDocuments, long maxBytes, ToLongFunction<Object> sizeOf) {
+        super();
+        if (maxDocuments < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        if (maxBytes > 0 && sizeOf == null) {
+            throw new IllegalArgumentException("the size of the documents is required for a size limit");
+        }
+        this.documents = documents;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.sizeOf = sizeOf;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null || documents.hasNext();
+    }
+
+    @Override
+    public Batch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Batch batch = new Batch();
+        long batchSize = 0;
+        if (pending != null) {
+            batch.add(pending);
+            batchSize = pendingSize;
+            pending = null;
+        }
+
+        while (batch.size() < maxDocuments && documents.hasNext()) {
+            Object document = documents.next();
+            if (sizeOf != null) {
+                long size = sizeOf.applyAsLong(document);
+                if (maxBytes > 0 && !batch.isEmpty() && batchSize + size > maxBytes) {
+                    pending = document;
+                    pendingSize = size;
+                    break;
+                }
+                batchSize += size;
+            }
+            batch.add(document);
+        }
+        if (sizeOf != null) {
+            batch.bytes = batchSize;
+        }
+        return batch;
+    }
+
+    /**
+     * A batch of documents.
+     */
+    public static class Batch extends ArrayList<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private long bytes = -1;
+
+        /**
+         * @return Returns the size of the serialized documents or -1 if the sizes of the documents have not been
+         *         computed.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+    }
+
+}
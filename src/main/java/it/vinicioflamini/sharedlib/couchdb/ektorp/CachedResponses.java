@@ -0,0 +1,139 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ektorp.ViewQuery;
+import org.ektorp.http.HttpResponse;
+
+/**
+ * This internal class holds the bodies of the responses of a view query, so that a query cache keeps the responses
+ * instead of the bound result. Each reader of the cached responses binds a new result, i.e. the readers never share
+ * the objects of a result. A query whose keys are sent in batches has a response per batch.
+ * <p>
+ * The responses are looked up by the request without <i>stale</i>, like the cached results, see
+ * {@link EktorpCrudRepository#queryKey(it.vinicioflamini.sharedlib.couchdb.api.ViewParams)}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class CachedResponses {
+
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /**
+     * Reads the whole body of the given response and releases the connection.
+     *
+     * @param viewQuery the query that has been sent
+     * @param response the successful response of the query
+     * @return Returns a response that replays the body.
+     */
+    public HttpResponse record(ViewQuery viewQuery, HttpResponse response) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = response.getContent()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            response.abort();
+            throw new RuntimeException(e);
+        }
+        response.releaseConnection();
+
+        byte[] body = out.toByteArray();
+        if (bodies.put(key(viewQuery), body) == null) {
+            byteCount.addAndGet(body.length);
+        }
+        return new ReplayedResponse(response.getRequestURI(), body);
+    }
+
+    /**
+     * @param viewQuery the query
+     * @return Returns null if the response of the given query has not been recorded, otherwise a response that replays
+     *         its body.
+     */
+    public HttpResponse replay(ViewQuery viewQuery) {
+        byte[] body = bodies.get(key(viewQuery));
+        return body == null ? null : new ReplayedResponse(viewQuery.buildQuery(), body);
+    }
+
+    /**
+     * @return Returns the total size of the recorded bodies.
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    private static String key(ViewQuery viewQuery) {
+        String request = EktorpCrudRepository.STALE_PARAMETER.matcher(viewQuery.buildQuery()).replaceAll("");
+        return request + " " + (viewQuery.hasMultipleKeys() ? viewQuery.getKeysAsJson() : "");
+    }
+
+    /**
+     * A successful response whose body is held in memory.
+     */
+    private static class ReplayedResponse implements HttpResponse {
+
+        private final String requestUri;
+
+        private final byte[] body;
+
+        ReplayedResponse(String requestUri, byte[] body) {
+            this.requestUri = requestUri;
+            this.body = body;
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return true;
+        }
+
+        @Override
+        public int getCode() {
+            return 200;
+        }
+
+        @Override
+        public String getRequestURI() {
+            return requestUri;
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/json";
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public String getETag() {
+            return null;
+        }
+
+        @Override
+        public void releaseConnection() {
+        }
+
+        @Override
+        public void abort() {
+        }
+
+    }
+
+}
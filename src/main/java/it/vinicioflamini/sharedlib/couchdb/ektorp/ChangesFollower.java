@@ -0,0 +1,262 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Follows the continuous <i>_changes</i> feed of a database in a background thread and notifies its listeners of every
+ * changed document, e.g. to invalidate the caches of an {@link EktorpCrudRepository} when another JVM writes to the
+ * same database, see {@link EktorpCrudRepository#followChanges(ChangesFollower)}.
+ * <p>
+ * The feed starts at the current update sequence of the database when {@link #start()} is called. If the connection
+ * fails, the follower reconnects with an exponential backoff and resumes after the last sequence it has seen, so no
+ * change is lost. While it is disconnected, changes are noticed late, so the listeners are told about the disconnect.
+ * <p>
+ * CouchDB sends a heartbeat while there are no changes. It must be shorter than the socket timeout of the
+ * {@link org.ektorp.http.HttpClient} of the database, otherwise the idle feed is considered dead and reconnected.
+ * EXAMPLE: <code>
+    &#64;Bean(initMethod = "start", destroyMethod = "close")
+    public ChangesFollower changesFollower(CouchDbConnector db, EktorpCrudRepository&lt;Product, String&gt; repository) {
+        ChangesFollower follower = new ChangesFollower(db);
+        repository.followChanges(follower);
+        return follower;
+    }
+ </code>
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ChangesFollower implements Closeable {
+
+    /**
+     * Is notified by the thread of the {@link ChangesFollower}, i.e. the notifications must not block.
+     */
+    public interface ChangeListener {
+
+        /**
+         * A document has been created, updated or deleted.
+         *
+         * @param docId the ID of the document
+         * @param seq the update sequence of the change
+         */
+        void onChange(String docId, String seq);
+
+        /**
+         * The feed has been disconnected. The changes until the reconnect are notified late.
+         */
+        default void onDisconnect() {
+        }
+
+    }
+
+    public static final int DEFAULT_HEARTBEAT_MILLIS = 5000;
+
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangesFollower.class);
+
+    private final CouchDbConnector db;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private int heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+
+    private long minBackoffMillis = DEFAULT_MIN_BACKOFF_MILLIS;
+
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    private volatile String lastSeq;
+
+    private volatile boolean running;
+
+    private volatile boolean connected;
+
+    private volatile ChangesFeed feed;
+
+    private Thread thread;
+
+    private final AtomicLong connections = new AtomicLong();
+
+    private final AtomicLong changes = new AtomicLong();
+
+    public ChangesFollower(CouchDbConnector db) {
+        super();
+        Assert.notNull(db, "The database must not be null.");
+        this.db = db;
+    }
+
+    public void addListener(ChangeListener listener) {
+        Assert.notNull(listener, "The listener must not be null.");
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param heartbeatMillis the interval of the heartbeat, shorter than the socket timeout
+     */
+    public void setHeartbeatMillis(int heartbeatMillis) {
+        Assert.isTrue(heartbeatMillis > 0, "The heartbeat must be positive.");
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * @param minBackoffMillis the delay of the first reconnect, doubled after each failed reconnect
+     * @param maxBackoffMillis the maximum delay of a reconnect
+     */
+    public void setBackoffMillis(long minBackoffMillis, long maxBackoffMillis) {
+        Assert.isTrue(minBackoffMillis > 0, "The minimum backoff must be positive.");
+        Assert.isTrue(maxBackoffMillis >= minBackoffMillis, "The maximum backoff must not be less than the minimum.");
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Starts to follow the changes after the current update sequence of the database.
+     */
+    public synchronized void start() {
+        Assert.state(!running, "The follower has already been started.");
+        lastSeq = db.getDbInfo().getUpdateSeqAsString();
+        running = true;
+        thread = new Thread(this::follow, "couchdb-changes-" + db.getDatabaseName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops following the changes and waits for the background thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        cancel(feed);
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Returns the update sequence of the last change that has been notified, initially the update sequence at
+     *         the start.
+     */
+    public String getLastSeq() {
+        return lastSeq;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return Returns the number of connections of the feed, i.e. 1 + the number of reconnects.
+     */
+    public long getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return Returns the number of changes that have been notified.
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    /*
+     * LOCAL METHODS
+     */
+
+    private void follow() {
+        long backoffMillis = minBackoffMillis;
+        while (running) {
+            try {
+                feed = db.changesFeed(new ChangesCommand.Builder().since(lastSeq).continuous(true).heartbeat(
+                        heartbeatMillis).build());
+                connections.incrementAndGet();
+                connected = true;
+                backoffMillis = minBackoffMillis;
+                while (running && feed.isAlive()) {
+                    DocumentChange change = feed.next(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    if (change != null) {
+                        notifyChange(change);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the feed has ended or the follower has been closed
+            } catch (RuntimeException e) {
+                logger.warn("The changes feed of " + db.getDatabaseName() + " has failed: " + e);
+            } finally {
+                cancel(feed);
+                feed = null;
+                if (connected) {
+                    connected = false;
+                    notifyDisconnect();
+                }
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    // closed
+                }
+                backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            }
+        }
+    }
+
+    private void notifyChange(DocumentChange change) {
+        // CouchDB 1.x sends numbers, 2.x strings
+        String seq = change.getStringSequence() != null ? change.getStringSequence()
+                : String.valueOf(change.getSequence());
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onChange(change.getId(), seq);
+            } catch (RuntimeException e) {
+                logger.error("A listener has failed on the change of " + change.getId(), e);
+            }
+        }
+        lastSeq = seq;
+        changes.incrementAndGet();
+    }
+
+    private void notifyDisconnect() {
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onDisconnect();
+            } catch (RuntimeException e) {
+                logger.error("A listener has failed on the disconnect", e);
+            }
+        }
+    }
+
+    private static void cancel(ChangesFeed feed) {
+        if (feed != null) {
+            try {
+                feed.cancel();
+            } catch (RuntimeException e) {
+                // the connection is broken anyway
+            }
+        }
+    }
+
+}
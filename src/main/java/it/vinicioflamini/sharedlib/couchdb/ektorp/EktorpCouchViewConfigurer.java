@@ -58,6 +58,9 @@ public class EktorpCouchViewConfigurer {
         if (params.getKey() != null) {
             view.key(params.getKey());
         }
+        if (params.getKeys() != null) {
+            view.keys(params.getKeys());
+        }
         if (params.getLimit() != null) {
             view.limit(params.getLimit());
         }
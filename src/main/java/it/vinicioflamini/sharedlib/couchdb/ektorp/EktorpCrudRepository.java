@@ -1,38 +1,102 @@
 package it.vinicioflamini.sharedlib.couchdb.ektorp;
 
-import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.toList;
+import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.map;
+import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.partition;
 import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.transformViewResult;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.StringUtils;
+import org.ektorp.AttachmentInputStream;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
 import org.ektorp.DocumentNotFoundException;
 import org.ektorp.DocumentOperationResult;
 import org.ektorp.ViewQuery;
 import org.ektorp.ViewResult.Row;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+import org.ektorp.http.URI;
 import org.ektorp.impl.NameConventions;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 
+import it.vinicioflamini.sharedlib.couchdb.api.AttachmentStream;
 import it.vinicioflamini.sharedlib.couchdb.api.CouchDbCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.api.DoubleAggregates;
 import it.vinicioflamini.sharedlib.couchdb.api.EntityInformation;
+import it.vinicioflamini.sharedlib.couchdb.api.KeysetPageRequest;
+import it.vinicioflamini.sharedlib.couchdb.api.KeysetSlice;
+import it.vinicioflamini.sharedlib.couchdb.api.LongAggregates;
+import it.vinicioflamini.sharedlib.couchdb.api.RepositoryMetrics;
+import it.vinicioflamini.sharedlib.couchdb.api.ReturnType;
+import it.vinicioflamini.sharedlib.couchdb.api.StatsAggregates;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
 import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationError;
 import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationException;
+import it.vinicioflamini.sharedlib.couchdb.api.exceptions.UnsupportedViewParameterException;
+import it.vinicioflamini.sharedlib.couchdb.internal.BatchRunner;
+import it.vinicioflamini.sharedlib.couchdb.internal.CountingOutputStream;
+import it.vinicioflamini.sharedlib.couchdb.internal.IteratorPublisher;
+import it.vinicioflamini.sharedlib.couchdb.support.DocumentCache;
+import it.vinicioflamini.sharedlib.couchdb.support.DocumentCache.CachedDocument;
+import it.vinicioflamini.sharedlib.couchdb.support.QueryCache;
+import it.vinicioflamini.sharedlib.couchdb.support.QueryCache.CachedResult;
 
 /**
  * This implementation of {@link CouchDbCrudRepository} uses Ektorp's {@link CouchDbConnector}.
@@ -46,13 +110,42 @@ import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationException
   }
  </code>
  * <p>
- * Take care when using {@link #deleteAll()} because it loads the IDs and revisions of all documents of the
- * above mentioned view at once, then deletes the documents.
+ * {@link #findAll()} does not load all documents at once. It reads the above mentioned view lazily page by page, see
+ * {@link #setPageSize(int)}.
+ * <p>
+ * {@link #deleteAll()} reads the IDs and revisions of the documents from the above mentioned view page by page as well
+ * and deletes the documents in batches, see {@link #setBulkBatchSize(int)}. The batches are sent one after the other
+ * unless an {@link Executor} is set, see {@link #setExecutor(Executor)} and {@link #setBulkConcurrency(int)}. The same
+ * applies to {@link #saveAll(Iterable)} and {@link #deleteAll(Iterable)}, whose batches can also be limited by their
+ * size in bytes, see {@link #setBulkMaxBytes(long)}.
+ * <p>
+ * {@link #findById(Serializable)} and {@link #findAllById(Iterable)} can be backed by a cache that revalidates the
+ * documents with their revision, see {@link #setDocumentCache(DocumentCache)}. The changes by other clients can be
+ * followed to evict the documents as soon as they are changed, see {@link #followChanges(ChangesFollower)}.
+ * <p>
+ * {@link #count()} and reduce queries can be backed by a cache that is validated with the update sequence of the
+ * database, see {@link #setQueryCache(QueryCache)}.
+ * <p>
+ * The operations, the view queries and the bulk requests can be recorded, see {@link #setMetrics(RepositoryMetrics)}.
+ * Slow queries can be logged with the time spent in each phase, see {@link #setSlowQueryThresholdMillis(long)}.
  * 
  * @author Vinicio Flamini (io@vinicioflamini.it)
  */
 public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbCrudRepository<T, I> {
 
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    public static final int DEFAULT_BULK_BATCH_SIZE = 1000;
+
+    public static final int DEFAULT_KEYS_BATCH_SIZE = 1000;
+
+    /**
+     * The estimated size of a cached count in bytes.
+     */
+    private static final long COUNT_WEIGHT = 16;
+
+    static final Pattern STALE_PARAMETER = Pattern.compile("(?<=[?&])stale=[^&]*&?");
+
     protected Logger logger = LoggerFactory.getLogger(EktorpCrudRepository.class);
 
     protected EktorpCouchViewConfigurer viewBuilder = new EktorpCouchViewConfigurer();
@@ -67,6 +160,36 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
     protected ObjectMapper objectMapper;
 
+    protected int pageSize = DEFAULT_PAGE_SIZE;
+
+    protected int bulkBatchSize = DEFAULT_BULK_BATCH_SIZE;
+
+    protected long bulkMaxBytes;
+
+    protected int keysBatchSize = DEFAULT_KEYS_BATCH_SIZE;
+
+    protected int bulkConcurrency = 1;
+
+    protected Executor executor;
+
+    protected DocumentCache documentCache;
+
+    protected QueryCache queryCache;
+
+    protected long countMaxStaleMillis;
+
+    protected ChangesFollower changesFollower;
+
+    protected RepositoryMetrics metrics = RepositoryMetrics.NONE;
+
+    protected long slowQueryThresholdMillis;
+
+    protected double slowQuerySampleRate = 1;
+
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private ObjectReader documentReader;
+
     public EktorpCrudRepository(Class<T> type, CouchDbConnector db) {
         this(type, false, db, new ObjectMapper(), new EktorpEntityInformation<T, I>());
     }
@@ -90,11 +213,17 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
         Assert.notNull(entity, "The given entity must not be null.");
 
-        if (ei.isNew(entity)) {
-            db.create(entity);
-        } else {
-            db.update(entity);
-        }
+        measured("save", () -> {
+            try {
+                if (ei.isNew(entity)) {
+                    db.create(entity);
+                } else {
+                    db.update(entity);
+                }
+            } finally {
+                evict(ei.getCouchId(entity));
+            }
+        });
 
         return entity; // Hint: the revision is already added resp. updated by Ektorp
     }
@@ -104,7 +233,13 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
         Assert.notNull(entities, "The given list of entities must not be null.");
 
-        executeBulk(toList(entities));
+        measured("saveAll", () -> {
+            try {
+                executeBulk(toBatches(entities.iterator()));
+            } finally {
+                evictAll(entities);
+            }
+        });
 
         return entities; // Hint: the revision is already added resp. updated by Ektorp
     }
@@ -114,12 +249,18 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
         Assert.notNull(id, "The given ID must not be null.");
 
-        try {
-            return Optional.of(db.get(type, ei.toCouchId(id)));
-        } catch (DocumentNotFoundException e) {
-            logger.debug("document with ID " + id + " not found", e);
-            return Optional.ofNullable(null);
-        }
+        return measured("findById", () -> {
+            if (documentCache != null) {
+                return Optional.ofNullable(findCached(ei.toCouchId(id)));
+            }
+
+            try {
+                return Optional.of(db.get(type, ei.toCouchId(id)));
+            } catch (DocumentNotFoundException e) {
+                logger.debug("document with ID " + id + " not found", e);
+                return Optional.ofNullable(null);
+            }
+        });
     }
 
     @Override
@@ -127,47 +268,370 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
         Assert.notNull(id, "The given ID must not be null.");
 
-        return db.contains(ei.toCouchId(id));
+        return measured("existsById", () -> db.contains(ei.toCouchId(id)));
+    }
+
+    /**
+     * Finds the documents in <i>_all_docs</i> like {@link #findRevisionsById(Iterable)}, i.e. the view <i>by_id</i> is
+     * not needed.
+     */
+    @Override
+    public Map<I, T> findAllDocumentsById(Iterable<I> ids) {
+        Map<String, I> idsByCouchId = toCouchIdMap(ids);
+
+        Map<String, byte[]> contents = new HashMap<>();
+        for (ViewResultRow row : measured("findAllDocumentsById", () -> lookUpAllDocs(idsByCouchId.keySet(),
+                true))) {
+            contents.put(row.getId(), row.getDoc());
+        }
+
+        Map<I, T> result = new LinkedHashMap<>();
+        for (Map.Entry<String, I> entry : idsByCouchId.entrySet()) {
+            byte[] content = contents.get(entry.getKey());
+            if (content != null) {
+                result.put(entry.getValue(), toEntity(content));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<I> existsAllById(Iterable<I> ids) {
+        return findRevisionsById(ids).keySet();
+    }
+
+    /**
+     * Looks the given IDs up in <i>_all_docs</i> without the documents. The IDs are sent in batches of
+     * {@link #getKeysBatchSize()}, concurrently like the bulk requests, see {@link #setBulkConcurrency(int)}.
+     */
+    @Override
+    public Map<I, String> findRevisionsById(Iterable<I> ids) {
+        Map<String, I> idsByCouchId = toCouchIdMap(ids);
+
+        Map<String, String> revisions = measured("findRevisionsById", () -> findRevisions(idsByCouchId.keySet()));
+
+        Map<I, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, I> entry : idsByCouchId.entrySet()) {
+            String revision = revisions.get(entry.getKey());
+            if (revision != null) {
+                result.put(entry.getValue(), revision);
+            }
+        }
+        return result;
     }
 
+    /**
+     * Returns all documents lazily. The documents are fetched page by page while iterating, i.e. at most
+     * {@link #getPageSize()} documents are held in memory at once. Each call of {@link Iterable#iterator()} starts a new
+     * scan of the database.
+     */
     @Override
     public Iterable<T> findAll() {
         ViewQuery viewQuery = createQuery("by_id").reduce(false).includeDocs(true);
-        return db.queryView(viewQuery, type);
+        // the key of the view is the document ID
+        return () -> new ViewPageIterator<T>(viewQuery, pageSize, this::findPage, ei::getCouchId, ei::getCouchId);
+    }
+
+    /**
+     * Reads a page of {@link #findAll()}.
+     */
+    protected List<T> findPage(ViewQuery pageQuery) {
+        QueryTrace trace = startTrace("findAll");
+        try {
+            if (trace != null) {
+                trace.addBuild(pageQuery, 0);
+            }
+            return readDocuments(pageQuery, trace);
+        } finally {
+            finishTrace(trace);
+        }
+    }
+
+    /**
+     * Returns all documents lazily like {@link #findAll()}, sorted by ID.
+     */
+    @Override
+    public Iterable<T> findAll(Sort sort) {
+        Assert.notNull(sort, "The sort must not be null.");
+
+        ViewQuery viewQuery = createQuery("by_id").reduce(false).includeDocs(true).descending(isDescendingById(sort));
+        return () -> new ViewPageIterator<T>(viewQuery, pageSize, this::findPage, ei::getCouchId, ei::getCouchId);
+    }
+
+    /**
+     * The entities are counted only for a page without continuation token. The total is carried in the token of the
+     * next page.
+     */
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        Assert.notNull(pageable, "The pageable must not be null.");
+
+        if (pageable.isUnpaged()) {
+            List<T> documents = new ArrayList<>();
+            findAll(pageable.getSort()).forEach(documents::add);
+            return new PageImpl<>(documents, pageable, documents.size());
+        }
+        return measured("findAll", () -> {
+            QueryTrace trace = startTrace("findAll");
+            try {
+                KeysetPageRequest request = KeysetPageRequest.of(pageable);
+                ViewQuery viewQuery = buildQuery(trace, () -> applyPage(createQuery("by_id").reduce(false)
+                        .includeDocs(true).descending(isDescendingById(pageable.getSort())), request));
+                List<T> documents = readDocuments(viewQuery, trace);
+                JsonNode position = request.getContinuationToken() == null ? null : decodeContinuationToken(request
+                        .getContinuationToken());
+                long total = position != null && position.size() > 2 ? position.get(2).asLong() : count();
+                String nextToken = null;
+                if (documents.size() > request.getPageSize()) {
+                    // the key of the view is the document ID
+                    String couchId = ei.getCouchId(documents.get(request.getPageSize()));
+                    nextToken = encodeContinuationToken(TextNode.valueOf(couchId), couchId, total);
+                    documents = new ArrayList<>(documents.subList(0, request.getPageSize()));
+                }
+                return new PageImpl<>(documents, request.withNextContinuationToken(nextToken), total);
+            } finally {
+                finishTrace(trace);
+            }
+        });
+    }
+
+    @Override
+    public KeysetSlice<ViewResultRow> findSlice(ViewParams viewParams, Pageable pageable) {
+        Assert.notNull(viewParams, "The view parameters must not be null.");
+        Assert.isTrue(pageable != null && pageable.isPaged(), "The pageable must be paged.");
+
+        return measured("findSlice", () -> {
+            QueryTrace trace = startTrace("findSlice");
+            try {
+                KeysetPageRequest request = KeysetPageRequest.of(pageable);
+                ViewQuery viewQuery = buildQuery(trace, () -> applyPage(createQuery(viewParams), request));
+                // the keys are read as trees first, because the token contains them as they are sent by the database
+                List<ViewResultRow> rows = new ArrayList<>();
+                try (ViewResultReader reader = openReader(viewQuery, new ViewRowBinder(readerFor(JsonNode.class),
+                        readerFor(viewParams.getValueType()), readerFor(viewParams.getDocumentType())), trace)) {
+                    reader.forEachRemaining(rows::add);
+                }
+
+                long start = trace != null ? System.nanoTime() : 0;
+                String nextToken = null;
+                if (rows.size() > request.getPageSize()) {
+                    ViewResultRow first = rows.get(request.getPageSize());
+                    nextToken = encodeContinuationToken((JsonNode) first.getKey(), first.getId());
+                    rows = new ArrayList<>(rows.subList(0, request.getPageSize()));
+                }
+                for (ViewResultRow row : rows) {
+                    row.setKey(toObject((JsonNode) row.getKey(), viewParams.getKeyType()));
+                }
+                if (trace != null) {
+                    trace.addConversion(System.nanoTime() - start);
+                }
+                return new KeysetSlice<>(rows, request.withNextContinuationToken(nextToken));
+            } finally {
+                finishTrace(trace);
+            }
+        });
+    }
+
+    /**
+     * Limits the given query to the requested page and the first row of the next page. The page starts at its
+     * continuation token, if any, otherwise the rows of the previous pages are skipped, which takes time proportional
+     * to the offset.
+     * 
+     * @throws IllegalArgumentException Thrown if the continuation token is invalid.
+     */
+    protected ViewQuery applyPage(ViewQuery viewQuery, KeysetPageRequest request) {
+        viewQuery.limit(request.getPageSize() + 1);
+        if (request.getContinuationToken() != null) {
+            JsonNode position = decodeContinuationToken(request.getContinuationToken());
+            viewQuery.startKey(position.get(0));
+            if (!position.get(1).isNull()) {
+                viewQuery.startDocId(position.get(1).asText());
+            }
+            if (viewQuery.getSkip() > 0) {
+                viewQuery.skip(0);
+            }
+        } else if (request.getOffset() > 0) {
+            viewQuery.skip(Math.toIntExact(request.getOffset()));
+        }
+        return viewQuery;
+    }
+
+    /**
+     * Encodes the position of a row in a view, i.e. the JSON array of its key and document ID, as URL-safe Base64.
+     * 
+     * @param docId null if the row is reduced
+     */
+    protected String encodeContinuationToken(JsonNode key, String docId) {
+        return encodeContinuationToken(key, docId, null);
+    }
+
+    /**
+     * Encodes the position of a row like {@link #encodeContinuationToken(JsonNode, String)} and the total number of
+     * rows as the third element of the array.
+     * 
+     * @param total null or the total number of rows
+     */
+    protected String encodeContinuationToken(JsonNode key, String docId, Long total) {
+        ArrayNode position = objectMapper.createArrayNode().add(key).add(docId);
+        if (total != null) {
+            position.add(total);
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(position));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes a token of {@link #encodeContinuationToken(JsonNode, String, Long)}.
+     * 
+     * @return Returns the array of the key, the document ID and, optionally, the total number of rows.
+     * @throws IllegalArgumentException Thrown if the token is invalid.
+     */
+    protected JsonNode decodeContinuationToken(String token) {
+        try {
+            JsonNode position = objectMapper.readTree(Base64.getUrlDecoder().decode(token));
+            if (position != null && position.isArray() && (position.size() == 2 || position.size() == 3 && position
+                    .get(2).canConvertToLong()) && (position.get(1).isTextual() || position.get(1).isNull())) {
+                return position;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // invalid token
+        }
+        throw new IllegalArgumentException("invalid continuation token: " + token);
+    }
+
+    /**
+     * The view <i>by_id</i> can only be sorted by ID.
+     * 
+     * @return Returns true if the sort is descending.
+     * @throws UnsupportedViewParameterException Thrown if the sort contains another property.
+     */
+    protected boolean isDescendingById(Sort sort) {
+        boolean descending = false;
+        for (Sort.Order order : sort) {
+            if (!"id".equals(order.getProperty()) && !"_id".equals(order.getProperty())) {
+                throw new UnsupportedViewParameterException("sort by " + order.getProperty());
+            }
+            descending = order.isDescending();
+        }
+        return descending;
     }
 
     @Override
     public Iterable<T> findAllById(Iterable<I> ids) {
         Assert.notNull(ids, "The given list of IDs must not be null.");
 
-        ViewQuery q = createQuery("by_id").keys(ei.toCouchIds(ids)).reduce(false).includeDocs(true);
-        return db.queryView(q, type);
+        return measured("findAllById", () -> {
+            QueryTrace trace = startTrace("findAllById");
+            try {
+                if (documentCache != null) {
+                    return findAllCached(ei.toCouchIds(ids), trace);
+                }
+
+                ViewQuery q = buildQuery(trace, () -> createQuery("by_id").keys(ei.toCouchIds(ids)).reduce(false)
+                        .includeDocs(true));
+                return readDocuments(q, trace);
+            } finally {
+                finishTrace(trace);
+            }
+        });
     }
 
     @Override
     public long count() {
-        ViewQuery viewQuery = createQuery("by_id").reduce(true);
-        org.ektorp.ViewResult viewResult = db.queryView(viewQuery);
-        if (viewResult.getRows().isEmpty()) {
-            // there are no documents -> there is no sum
-            return 0;
-        } else {
-            // the sum is in the returned row (there is only one row)
-            return viewResult.getRows().get(0).getValueAsInt();
+        return measured("count", () -> {
+            if (queryCache != null) {
+                return this.<Long> cachedQuery("count", countMaxStaleMillis, false, this::queryCount,
+                        count -> COUNT_WEIGHT);
+            }
+            return queryCount();
+        });
+    }
+
+    /**
+     * Counts the entities with the view <i>by_id</i>.
+     */
+    protected long queryCount() {
+        QueryTrace trace = startTrace("count");
+        try {
+            ViewQuery viewQuery = buildQuery(trace, () -> createQuery("by_id").reduce(true));
+            try (ViewResultReader reader = openReader(viewQuery, new ViewRowBinder(null, readerFor(Long.class),
+                    null), trace)) {
+                if (!reader.hasNext()) {
+                    // there are no documents -> there is no sum
+                    return 0;
+                }
+                // the sum is in the returned row (there is only one row)
+                Long count = reader.next().getValue();
+                return count;
+            }
+        } finally {
+            finishTrace(trace);
         }
     }
 
+    /**
+     * The revision is looked up with a HEAD request like {@link #existsById(Serializable)}, i.e. regardless of the
+     * views of this repository. A document with the given ID is deleted even if it is not an entity of this
+     * repository.
+     */
     @Override
-    @SuppressWarnings("rawtypes")
     public void deleteById(I id) {
 
         Assert.notNull(id, "The given ID must not be null.");
 
-        ViewQuery viewQuery = createQuery("by_id").reduce(false).includeDocs(false).key(ei.toCouchId(id));
-        List<Map> results = db.queryView(viewQuery, Map.class);
-        if (!results.isEmpty()) {
-            db.delete((String) results.get(0).get("_id"), (String) results.get(0).get("_rev"));
-        }
+        String couchId = ei.toCouchId(id);
+        measured("deleteById", () -> {
+            String revision;
+            try {
+                // HEAD request, the revision is the ETag
+                revision = db.getCurrentRevision(couchId);
+            } catch (DocumentNotFoundException e) {
+                return;
+            }
+            try {
+                db.delete(couchId, revision);
+            } finally {
+                evict(couchId);
+            }
+        });
+    }
+
+    /**
+     * Looks the revisions up like {@link #findRevisionsById(Iterable)} and deletes the existing documents in batches
+     * like {@link #deleteAll(Iterable)}. Both are recorded as a single operation.
+     */
+    @Override
+    public Set<I> deleteAllById(Iterable<I> ids) {
+
+        Map<String, I> idsByCouchId = toCouchIdMap(ids);
+
+        return measured("deleteAllById", () -> {
+            Map<String, String> revisions = findRevisions(idsByCouchId.keySet());
+
+            Set<I> missingIds = new LinkedHashSet<>();
+            List<Map<String, Object>> documents = new ArrayList<>(revisions.size());
+            for (Map.Entry<String, I> entry : idsByCouchId.entrySet()) {
+                String revision = revisions.get(entry.getKey());
+                if (revision == null) {
+                    missingIds.add(entry.getValue());
+                } else {
+                    documents.add(createBulkDeleteDocument(entry.getKey(), revision));
+                }
+            }
+
+            try {
+                executeBulk(toBatches(documents.iterator()));
+            } finally {
+                if (documentCache != null) {
+                    revisions.keySet().forEach(documentCache::invalidate);
+                }
+                invalidateQueries();
+            }
+            return missingIds;
+        });
     }
 
     @Override
@@ -175,7 +639,13 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
         Assert.notNull(entity, "The given entity must not be null.");
 
-        db.delete(ei.getCouchId(entity), ei.getRev(entity));
+        measured("delete", () -> {
+            try {
+                db.delete(ei.getCouchId(entity), ei.getRev(entity));
+            } finally {
+                evict(ei.getCouchId(entity));
+            }
+        });
     }
 
     @Override
@@ -183,113 +653,1436 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
 
         Assert.notNull(entities, "The given list of entities must not be null.");
 
-        Collection<Map<String, Object>> collection = new ArrayList<>();
-        for (T entity : entities) {
-            collection.add(createBulkDeleteDocument(ei.getCouchId(entity), ei.getRev(entity)));
-        }
-
-        executeBulk(collection);
+        measured("deleteAll", () -> {
+            try {
+                executeBulk(toBatches(map(entities.iterator(), entity -> createBulkDeleteDocument(ei.getCouchId(
+                        entity), ei.getRev(entity)))));
+            } finally {
+                evictAll(entities);
+            }
+        });
     }
 
+    /**
+     * Deletes all documents batch by batch. The IDs and revisions are read page by page, i.e. the documents are never
+     * held in memory at once.
+     * <p>
+     * The errors of all batches are collected and thrown as a single {@link BulkOperationException} when all batches
+     * have been processed.
+     */
     @Override
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public void deleteAll() {
 
         ViewQuery viewQuery = createQuery("by_id").reduce(false).includeDocs(false);
-        List<Map<String, Object>> results = ((List) db.queryView(viewQuery, HashMap.class));
-        for (Map result : results) {
-            result.put("_deleted", true);
-        }
+        Iterator<Map> rows = new ViewPageIterator<Map>(viewQuery, pageSize, q -> {
+            List<Map> results = (List) db.queryView(q, HashMap.class);
+            for (Map result : results) {
+                result.put("_deleted", true);
+            }
+            return results;
+        }, row -> row.get("_id"), row -> (String) row.get("_id"));
 
-        executeBulk(results);
+        measured("deleteAll", () -> {
+            try {
+                executeBulk(toBatches(rows));
+            } finally {
+                if (documentCache != null) {
+                    documentCache.invalidateAll();
+                }
+                invalidateQueries();
+            }
+        });
     }
 
+    /**
+     * The request body is streamed by the HTTP client, which closes the stream when it has been sent.
+     */
     @Override
-    public <R> R find(ViewParams viewParams) {
+    public String saveAttachment(I id, String revision, String attachmentId, InputStream data, String contentType,
+            long contentLength) {
 
-        ViewQuery viewQuery = new ViewQuery().dbPath(db.path());
-        viewBuilder.configure(viewQuery, viewParams);
-        if (viewQuery.getDesignDocId() == null) {
-            viewQuery.designDocId(NameConventions.designDocName(type));
-        }
+        Assert.notNull(id, "The given ID must not be null.");
+        Assert.hasText(attachmentId, "The given attachment ID must not be empty.");
+        Assert.notNull(data, "The given data must not be null.");
+
+        String couchId = ei.toCouchId(id);
+        AttachmentInputStream attachment = new AttachmentInputStream(attachmentId, data, contentType, contentLength);
+        return measured("saveAttachment", () -> {
+            try {
+                return revision == null ? db.createAttachment(couchId, attachment)
+                        : db.createAttachment(couchId, revision, attachment);
+            } finally {
+                evict(couchId);
+            }
+        });
+    }
 
-        org.ektorp.ViewResult ektorpViewResult = db.queryView(viewQuery);
+    @Override
+    public String saveAttachment(I id, String revision, String attachmentId, ReadableByteChannel data,
+            String contentType, long contentLength) {
 
-        ViewResult viewResult = toViewResult(ektorpViewResult, viewParams);
+        Assert.notNull(data, "The given channel must not be null.");
 
-        return transformViewResult(viewResult, viewParams.getReturnType());
+        return saveAttachment(id, revision, attachmentId, Channels.newInputStream(data), contentType, contentLength);
     }
-    
+
     /**
-     * Creates a ViewQuery 
+     * The file is read through a {@link FileChannel}. It is not mapped into memory, because the HTTP client copies the
+     * content into its own buffer anyway.
      */
-    protected ViewQuery createQuery(String viewName) {
-        return new ViewQuery().dbPath(db.path()).designDocId(NameConventions.designDocName(type)).viewName(viewName);
+    @Override
+    public String saveAttachment(I id, String revision, String attachmentId, Path file, String contentType) {
+
+        Assert.notNull(file, "The given file must not be null.");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return saveAttachment(id, revision, attachmentId, channel, contentType, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Optional<AttachmentStream> findAttachment(I id, String attachmentId) {
+
+        Assert.notNull(id, "The given ID must not be null.");
+        Assert.hasText(attachmentId, "The given attachment ID must not be empty.");
+
+        return measured("findAttachment", () -> {
+            try {
+                AttachmentInputStream in = db.getAttachment(ei.toCouchId(id), attachmentId);
+                return Optional.of(new AttachmentStream(in, in.getId(), in.getContentType(), in.getContentLength()));
+            } catch (DocumentNotFoundException e) {
+                logger.debug("attachment " + attachmentId + " of document with ID " + id + " not found", e);
+                return Optional.empty();
+            }
+        });
     }
 
     /**
-     * Transforms a Ektorp-specific view result to CouchRepository's view result.
-     * 
-     * @param viewResult
-     *            the Ektorp-specific view result
-     * @param viewParams
-     *            the parameters inform about the return type
-     * @return Returns the transformed view result.
+     * The content is transferred from the response to the file through a {@link FileChannel}, block by block.
      */
-    protected ViewResult toViewResult(org.ektorp.ViewResult viewResult, ViewParams viewParams) {
-        ViewResult result = new ViewResult();
-        result.setOffset(result.getOffset());
-        result.setTotalRows(viewResult.getTotalRows());
-        result.setUpdateSeq(viewResult.getUpdateSeq());
+    @Override
+    public boolean findAttachment(I id, String attachmentId, Path target) {
 
-        List<Row> rows = viewResult.getRows();
-        List<ViewResultRow> resultRows = new ArrayList<>();
-        for (Row row : rows) {
-            ViewResultRow resultRow = new ViewResultRow();
-            resultRow.setId(id(row));
-            resultRow.setDoc(toObject(row.getDocAsNode(), viewParams.getDocumentType()));
-            resultRow.setKey(toObject(row.getKeyAsNode(), viewParams.getKeyType()));
-            resultRow.setValue(toObject(row.getValueAsNode(), viewParams.getValueType()));
-            resultRows.add(resultRow);
+        Assert.notNull(target, "The given file must not be null.");
+
+        Optional<AttachmentStream> attachment = findAttachment(id, attachmentId);
+        if (!attachment.isPresent()) {
+            return false;
         }
+        try (AttachmentStream in = attachment.get();
+                ReadableByteChannel source = Channels.newChannel(in);
+                FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long transferred;
+            // a blocking source is transferred until its end, unless the count is reached
+            while ((transferred = channel.transferFrom(source, position, Long.MAX_VALUE - position)) > 0) {
+                position += transferred;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
 
-        result.setRows(resultRows);
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R find(ViewParams viewParams) {
+        ReturnType returnType = ReturnType.of(viewParams.getReturnType());
 
-        return result;
+        return measured("find", () -> {
+            QueryTrace trace = startTrace("find");
+            try {
+                if (queryCache == null) {
+                    return (R) readResult(viewParams, returnType, trace, null);
+                }
+                // the responses are cached instead of the result, i.e. each caller gets a result of its own
+                Object[] result = new Object[1];
+                CachedResponses responses = cachedQuery(queryKey(viewParams), 0, viewParams.getStale() != null, () -> {
+                    CachedResponses recorded = new CachedResponses();
+                    result[0] = readResult(viewParams, returnType, trace, recorded);
+                    return recorded;
+                }, CachedResponses::getByteCount);
+                return (R) (result[0] != null ? result[0] : readResult(viewParams, returnType, trace, responses));
+            } finally {
+                finishTrace(trace);
+            }
+        });
     }
 
-    private String id(Row row) {
-        try {
-            return row.getId();
-        } catch (NullPointerException e) {
-            return null; // happens when reduce = true 
+    /**
+     * Sends the query and reads the result of {@link #find(ViewParams)}. If the return type is a projection, only the
+     * returned field of the rows is bound, and a single query collects the fields directly into the list.
+     * 
+     * @param trace null or the trace of the query
+     * @param responses null or the responses that are replayed resp. recorded, see {@link CachedResponses}
+     * @return Returns the view result or the list of the returned fields.
+     */
+    protected Object readResult(ViewParams viewParams, ReturnType returnType, QueryTrace trace,
+            CachedResponses responses) {
+        ViewResultReader.RowBinder binder = createRowBinder(viewParams, returnType);
+        if (returnType == ReturnType.RESULT || isBatched(viewParams)) {
+            ViewResult viewResult = readViewResult(viewParams, binder, trace, responses);
+            long start = trace != null ? System.nanoTime() : 0;
+            Object result = transformViewResult(viewResult, returnType);
+            if (trace != null) {
+                trace.addConversion(System.nanoTime() - start);
+            }
+            return result;
         }
-    }
 
-    protected Object toObject(JsonNode jsonNode, Class<?> valueType) {
-        if (jsonNode == null || valueType == null) {
-            return null;
-        } else {
-            try {
-                return objectMapper.treeToValue(jsonNode, valueType);
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
+        ViewQuery viewQuery = buildQuery(trace, () -> createQuery(viewParams));
+        List<Object> result = new ArrayList<>();
+        try (ViewResultReader reader = openReader(viewQuery, binder, trace, responses)) {
+            while (reader.hasNext()) {
+                result.add(returnType.project(reader.next()));
             }
         }
+        return result;
     }
-    
-    protected Map<String, Object> createBulkDeleteDocument(String id, String revision) {
-        Map<String, Object> map = new HashMap<String, Object>(3);
-        map.put("_id", id);
+
+    /**
+     * Sends the query and reads the whole result.
+     * 
+     * @param trace null or the trace of the query
+     * @param responses null or the responses that are replayed resp. recorded, see {@link CachedResponses}
+     */
+    protected ViewResult readViewResult(ViewParams viewParams, QueryTrace trace, CachedResponses responses) {
+        return readViewResult(viewParams, createRowBinder(viewParams), trace, responses);
+    }
+
+    /**
+     * Sends the query and reads the whole result with the given binder.
+     * 
+     * @param trace null or the trace of the query
+     * @param responses null or the responses that are replayed resp. recorded, see {@link CachedResponses}
+     */
+    protected ViewResult readViewResult(ViewParams viewParams, ViewResultReader.RowBinder binder, QueryTrace trace,
+            CachedResponses responses) {
+        if (isBatched(viewParams)) {
+            return readViewResultInBatches(viewParams, binder, trace, responses);
+        }
+        ViewQuery viewQuery = buildQuery(trace, () -> createQuery(viewParams));
+        return readViewResult(viewQuery, binder, trace, responses);
+    }
+
+    /**
+     * @return Returns true if the keys of the query are sent in batches, see {@link #getKeysBatchSize()}.
+     */
+    protected boolean isBatched(ViewParams viewParams) {
+        return viewParams.getKeys() != null && viewParams.getKeys().size() > keysBatchSize;
+    }
+
+    /**
+     * Sends the keys of a multi-key query in batches of {@link #getKeysBatchSize()}, concurrently like the bulk
+     * requests, and merges the rows in the order of the keys. The skip and the limit of the parameters apply to the
+     * merged rows, i.e. each batch returns at most skip + limit rows.
+     * 
+     * @param binder the binder of the rows
+     * @param trace null or the trace of the query
+     * @param responses null or the responses that are replayed resp. recorded, see {@link CachedResponses}
+     */
+    protected ViewResult readViewResultInBatches(ViewParams viewParams, ViewResultReader.RowBinder binder,
+            QueryTrace trace, CachedResponses responses) {
+        int skip = viewParams.getSkip() == null ? 0 : viewParams.getSkip();
+        Integer limit = viewParams.getLimit();
+
+        List<ViewResult> batchResults = new BatchRunner(executor, bulkConcurrency).run(partition(viewParams.getKeys()
+                .iterator(), keysBatchSize), batch -> {
+                    ViewQuery viewQuery = buildQuery(trace, () -> {
+                        ViewQuery batchQuery = createQuery(viewParams).keys(batch);
+                        if (skip > 0) {
+                            batchQuery.skip(0);
+                        }
+                        if (limit != null) {
+                            batchQuery.limit((int) Math.min(Integer.MAX_VALUE, (long) skip + limit));
+                        }
+                        return batchQuery;
+                    });
+                    return readViewResult(viewQuery, binder, trace, responses);
+                });
+
+        ViewResult viewResult = new ViewResult();
+        List<ViewResultRow> rows = new ArrayList<>();
+        for (ViewResult batchResult : batchResults) {
+            rows.addAll(batchResult.getRows());
+            viewResult.setTotalRows(batchResult.getTotalRows());
+            viewResult.setUpdateSeq(Math.max(viewResult.getUpdateSeq(), batchResult.getUpdateSeq()));
+        }
+        int from = Math.min(skip, rows.size());
+        int to = limit == null ? rows.size() : (int) Math.min(rows.size(), (long) from + limit);
+        viewResult.setRows(new ArrayList<>(rows.subList(from, to)));
+        return viewResult;
+    }
+
+    /**
+     * Sends the given query and reads the whole result with the given binder.
+     * 
+     * @param trace null or the trace of the query
+     * @param responses null or the responses that are replayed resp. recorded, see {@link CachedResponses}
+     */
+    protected ViewResult readViewResult(ViewQuery viewQuery, ViewResultReader.RowBinder binder, QueryTrace trace,
+            CachedResponses responses) {
+        ViewResult viewResult = new ViewResult();
+        try (ViewResultReader reader = openReader(viewQuery, binder, trace, responses)) {
+            reader.forEachRemaining(viewResult.getRows()::add);
+            viewResult.setOffset(reader.getOffset());
+            viewResult.setTotalRows(reader.getTotalRows());
+            viewResult.setUpdateSeq(reader.getUpdateSeq());
+        }
+        return viewResult;
+    }
+    
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the number of documents that are fetched with a single request by {@link #findAll()}.
+     * 
+     * @param pageSize the page size, default is {@value #DEFAULT_PAGE_SIZE}
+     */
+    public void setPageSize(int pageSize) {
+        Assert.isTrue(pageSize > 0, "The page size must be positive.");
+        this.pageSize = pageSize;
+    }
+
+    public int getBulkBatchSize() {
+        return bulkBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of documents that are sent with a single bulk request. If {@link #allOrNothing} is set,
+     * it applies to each batch.
+     * 
+     * @param bulkBatchSize the batch size, default is {@value #DEFAULT_BULK_BATCH_SIZE}
+     */
+    public void setBulkBatchSize(int bulkBatchSize) {
+        Assert.isTrue(bulkBatchSize > 0, "The batch size must be positive.");
+        this.bulkBatchSize = bulkBatchSize;
+    }
+
+    public long getBulkMaxBytes() {
+        return bulkMaxBytes;
+    }
+
+    /**
+     * Sets the maximum size of the body of a bulk request. The size of a document is estimated by serializing it with
+     * {@link #objectMapper}, i.e. the documents are serialized twice. Thus, there is no limit by default.
+     * 
+     * @param bulkMaxBytes the maximum size in bytes or 0 for no limit
+     */
+    public void setBulkMaxBytes(long bulkMaxBytes) {
+        Assert.isTrue(bulkMaxBytes >= 0, "The maximum size must not be negative.");
+        this.bulkMaxBytes = bulkMaxBytes;
+    }
+
+    public int getKeysBatchSize() {
+        return keysBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of IDs that are looked up with a single request by {@link #findRevisionsById(Iterable)}
+     * and {@link #existsAllById(Iterable)}, and the maximum number of keys that {@link #find(ViewParams)} sends with a
+     * single request.
+     * 
+     * @param keysBatchSize the batch size, default is {@value #DEFAULT_KEYS_BATCH_SIZE}
+     */
+    public void setKeysBatchSize(int keysBatchSize) {
+        Assert.isTrue(keysBatchSize > 0, "The batch size must be positive.");
+        this.keysBatchSize = keysBatchSize;
+    }
+
+    public int getBulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of bulk requests in flight, which also applies to the batches of ID lookups and of
+     * multi-key queries. Only effective if an {@link Executor} is set.
+     * 
+     * @param bulkConcurrency the number of concurrent bulk requests, default is 1
+     */
+    public void setBulkConcurrency(int bulkConcurrency) {
+        Assert.isTrue(bulkConcurrency > 0, "The concurrency must be positive.");
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor that sends concurrent requests. If null, all requests are sent by the calling thread.
+     * 
+     * @param executor null or an executor, preferably with a bounded number of threads
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * Sets the cache of {@link #findById(Serializable)} and {@link #findAllById(Iterable)}. The documents written or
+     * deleted by this repository are evicted from the cache. A cached document is used without asking the database
+     * while it is fresh. Afterwards, {@link #findById(Serializable)} revalidates it with its revision, i.e. the database
+     * answers with <i>304 Not Modified</i> instead of the document if it has not changed.
+     * <p>
+     * Changes by other clients are not noticed while a document is fresh, unless the repository follows the changes of
+     * the database, see {@link #followChanges(ChangesFollower)}.
+     * 
+     * @param documentCache null or the cache, no cache by default
+     */
+    public void setDocumentCache(DocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the cache of {@link #count()} and of {@link #find(ViewParams)}. A cached result is used as long as the update
+     * sequence of the database has not moved, which is checked with a request of the database info or, without
+     * request, with the follower of the changes, see {@link #followChanges(ChangesFollower)}. The writes of this
+     * repository invalidate the cached results. The responses of {@link #find(ViewParams)} are cached rather than their
+     * results, i.e. each call binds a new result, which the caller may change.
+     * <p>
+     * The results of {@link #find(ViewParams)} are cached by the canonical form of the query, see
+     * {@link #queryKey(ViewParams)}, and weighed with the size of the response. A query with <i>stale</i> uses a cached
+     * result of the same query without checking the update sequence. If it is not cached, the result is cached for
+     * other queries with <i>stale</i> only.
+     * 
+     * @param queryCache null or the cache, no cache by default
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public long getCountMaxStaleMillis() {
+        return countMaxStaleMillis;
+    }
+
+    /**
+     * Allows {@link #count()} to return a cached count without checking the update sequence of the database, as long as
+     * the count has been up-to-date within the given time. Only effective with a {@link QueryCache}.
+     * <p>
+     * Unlike a query with <i>stale=ok</i>, whose result can be arbitrarily old, the staleness is bounded.
+     * 
+     * @param countMaxStaleMillis the maximum staleness in milliseconds or 0 to check each time, default is 0
+     */
+    public void setCountMaxStaleMillis(long countMaxStaleMillis) {
+        Assert.isTrue(countMaxStaleMillis >= 0, "The maximum staleness must not be negative.");
+        this.countMaxStaleMillis = countMaxStaleMillis;
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the recorder of the operations of this repository, of the view queries read with a streaming parser (see
+     * {@link #find(ViewParams)}, {@link #stream(ViewParams)} and the lookups in <i>_all_docs</i>) and of the bulk
+     * requests. Nothing is measured with {@link RepositoryMetrics#NONE}. The bytes sent by bulk requests are estimated
+     * like the size limit of the batches, see {@link #setBulkMaxBytes(long)}.
+     * 
+     * @param metrics the metrics, default is {@link RepositoryMetrics#NONE}
+     */
+    public void setMetrics(RepositoryMetrics metrics) {
+        Assert.notNull(metrics, "The metrics must not be null.");
+        this.metrics = metrics;
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    /**
+     * Logs the queries of {@link #find(ViewParams)}, {@link #findAll()} (page by page), {@link #findAllById(Iterable)}
+     * and {@link #count()} that take longer than the given time, see {@link QueryTrace}.
+     * 
+     * @param slowQueryThresholdMillis the threshold in milliseconds or 0 to log no queries, default is 0
+     */
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        Assert.isTrue(slowQueryThresholdMillis >= 0, "The threshold must not be negative.");
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    public double getSlowQuerySampleRate() {
+        return slowQuerySampleRate;
+    }
+
+    /**
+     * Sets the fraction of the queries that are timed for the slow query log, e.g. 0.01 to time one query out of a
+     * hundred at random. The other queries are neither timed nor logged.
+     * 
+     * @param slowQuerySampleRate the rate between 0 and 1, default is 1
+     */
+    public void setSlowQuerySampleRate(double slowQuerySampleRate) {
+        Assert.isTrue(slowQuerySampleRate >= 0 && slowQuerySampleRate <= 1, "The rate must be between 0 and 1.");
+        this.slowQuerySampleRate = slowQuerySampleRate;
+    }
+
+    /**
+     * Evicts the documents changed by any client from the caches of this repository, i.e. a long time to live of the
+     * cached documents does not return outdated documents. A change that is noticed while a document is read is not
+     * overwritten by the read document, see {@link DocumentCache}. When the follower is disconnected, all cached
+     * documents and query results are evicted, because the changes are noticed late until it has reconnected.
+     * <p>
+     * While the follower is connected, the cached query results are validated with the update sequence of the last
+     * change instead of asking the database, see {@link #setQueryCache(QueryCache)}. A change does not evict them,
+     * because the feed contains the changes of all documents of the database, not only of those of this repository.
+     * 
+     * @param follower the follower of the changes of the database of this repository
+     */
+    public void followChanges(ChangesFollower follower) {
+        this.changesFollower = follower;
+        follower.addListener(new ChangesFollower.ChangeListener() {
+
+            @Override
+            public void onChange(String docId, String seq) {
+                if (documentCache != null && docId != null) {
+                    documentCache.invalidate(docId);
+                }
+            }
+
+            @Override
+            public void onDisconnect() {
+                if (documentCache != null) {
+                    documentCache.invalidateAll();
+                }
+                invalidateQueries();
+            }
+
+        });
+    }
+
+    @Override
+    public Stream<ViewResultRow> stream(ViewParams viewParams) {
+
+        ViewResultReader reader = openReader(viewParams);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED
+                | Spliterator.NONNULL), false).onClose(reader::close);
+    }
+
+    @Override
+    public LongAggregates aggregateLongs(ViewParams viewParams) {
+        LongAggregates aggregates = new LongAggregates();
+        aggregateLongs(viewParams, aggregates::add);
+        return aggregates;
+    }
+
+    @Override
+    public void aggregateLongs(ViewParams viewParams, ObjLongConsumer<Object> consumer) {
+        Assert.notNull(consumer, "The consumer must not be null.");
+
+        AggregateRowBinder binder = createAggregateRowBinder(viewParams, AggregateRowBinder.ValueType.LONG);
+        aggregate("aggregateLongs", viewParams, binder, row -> consumer.accept(row.getKey(), binder
+                .getLongValue()));
+    }
+
+    @Override
+    public DoubleAggregates aggregateDoubles(ViewParams viewParams) {
+        DoubleAggregates aggregates = new DoubleAggregates();
+        aggregateDoubles(viewParams, aggregates::add);
+        return aggregates;
+    }
+
+    @Override
+    public void aggregateDoubles(ViewParams viewParams, ObjDoubleConsumer<Object> consumer) {
+        Assert.notNull(consumer, "The consumer must not be null.");
+
+        AggregateRowBinder binder = createAggregateRowBinder(viewParams, AggregateRowBinder.ValueType.DOUBLE);
+        aggregate("aggregateDoubles", viewParams, binder, row -> consumer.accept(row.getKey(), binder
+                .getDoubleValue()));
+    }
+
+    @Override
+    public StatsAggregates aggregateStats(ViewParams viewParams) {
+        StatsAggregates aggregates = new StatsAggregates();
+        aggregateStats(viewParams, aggregates::add);
+        return aggregates;
+    }
+
+    @Override
+    public void aggregateStats(ViewParams viewParams, StatsAggregates.Consumer consumer) {
+        Assert.notNull(consumer, "The consumer must not be null.");
+
+        AggregateRowBinder binder = createAggregateRowBinder(viewParams, AggregateRowBinder.ValueType.STATS);
+        aggregate("aggregateStats", viewParams, binder, row -> consumer.accept(row.getKey(), binder.getCount(),
+                binder.getSum(), binder.getMin(), binder.getMax(), binder.getSumsqr()));
+    }
+
+    /**
+     * Creates the binder of the rows of a reduce query. The keys are bound to the key type of the parameters or to
+     * plain Java objects.
+     */
+    protected AggregateRowBinder createAggregateRowBinder(ViewParams viewParams,
+            AggregateRowBinder.ValueType valueType) {
+        Assert.notNull(viewParams, "The view parameters must not be null.");
+
+        return new AggregateRowBinder(readerFor(viewParams.getKeyType() != null ? viewParams.getKeyType()
+                : Object.class), valueType);
+    }
+
+    /**
+     * Runs the reduce query of the given parameters and passes each row to the given action while it is read. The
+     * value of the row is the one of the binder.
+     * 
+     * @throws UnsupportedViewParameterException Thrown if the parameters disable the reduce function.
+     */
+    protected void aggregate(String operation, ViewParams viewParams, AggregateRowBinder binder,
+            Consumer<ViewResultRow> action) {
+        if (Boolean.FALSE.equals(viewParams.getReduce())) {
+            throw new UnsupportedViewParameterException("reduce=false");
+        }
+
+        measured(operation, () -> {
+            QueryTrace trace = startTrace(operation);
+            try {
+                ViewQuery viewQuery = buildQuery(trace, () -> createQuery(viewParams).reduce(true));
+                try (ViewResultReader reader = openReader(viewQuery, binder, trace)) {
+                    while (reader.hasNext()) {
+                        action.accept(reader.next());
+                    }
+                }
+            } finally {
+                finishTrace(trace);
+            }
+        });
+    }
+
+    @Override
+    public Stream<ViewResultRow> parallelScan(ViewParams viewParams, int partitions) {
+        Assert.isTrue(partitions > 0, "The number of partitions must be positive.");
+
+        ViewQuery scanQuery = createScanQuery(viewParams);
+        List<?> splitKeys = partitions > 1 ? sampleSplitKeys(scanQuery, partitions) : Collections.emptyList();
+        return parallelScan(viewParams, scanQuery, splitKeys);
+    }
+
+    @Override
+    public Stream<ViewResultRow> parallelScan(ViewParams viewParams, List<?> splitKeys) {
+        Assert.notNull(splitKeys, "The split keys must not be null.");
+
+        return parallelScan(viewParams, createScanQuery(viewParams), splitKeys);
+    }
+
+    /**
+     * Splits the given query at the given keys and reads the partitions with a {@link PartitionSpliterator}.
+     */
+    protected Stream<ViewResultRow> parallelScan(ViewParams viewParams, ViewQuery scanQuery, List<?> splitKeys) {
+        List<ViewQuery> partitions = new ArrayList<>();
+        for (int i = 0; i <= splitKeys.size(); i++) {
+            ViewQuery partition = scanQuery.clone();
+            if (i > 0) {
+                partition.startKey(splitKeys.get(i - 1)).startDocId(null);
+            }
+            if (i < splitKeys.size()) {
+                partition.endKey(splitKeys.get(i)).endDocId(null).inclusiveEnd(false);
+            }
+            partitions.add(partition);
+        }
+
+        ViewResultReader.RowBinder binder = createRowBinder(viewParams);
+        Set<ViewResultReader> openReaders = ConcurrentHashMap.newKeySet();
+        return StreamSupport.stream(new PartitionSpliterator(partitions, partition -> openReader(partition, binder),
+                openReaders), true).onClose(() -> openReaders.forEach(ViewResultReader::close));
+    }
+
+    /**
+     * Creates the query of a scan, whose range can be split.
+     * 
+     * @throws UnsupportedViewParameterException Thrown if the parameters select rows by key or by position.
+     */
+    protected ViewQuery createScanQuery(ViewParams viewParams) {
+        Assert.notNull(viewParams, "The view parameters must not be null.");
+
+        if (viewParams.getKey() != null) {
+            throw new UnsupportedViewParameterException("key");
+        }
+        if (viewParams.getKeys() != null) {
+            throw new UnsupportedViewParameterException("keys");
+        }
+        if (viewParams.getLimit() != null) {
+            throw new UnsupportedViewParameterException("limit");
+        }
+        if (viewParams.getSkip() != null) {
+            throw new UnsupportedViewParameterException("skip");
+        }
+        return createQuery(viewParams);
+    }
+
+    /**
+     * Samples the keys that split the range of the given query into partitions of about the same size. The number of
+     * rows is estimated from the offsets of the start and the end of the range, and each split key is read with a
+     * request that skips to its position. These requests are sent concurrently like the batches of ID lookups.
+     * 
+     * @return Returns the split keys in the order of the view without duplicates, i.e. there may be fewer than
+     *         partitions - 1.
+     */
+    protected List<JsonNode> sampleSplitKeys(ViewQuery scanQuery, int partitions) {
+        ViewQuery sampleQuery = new ViewQuery().dbPath(db.path()).designDocId(scanQuery.getDesignDocId()).viewName(
+                scanQuery.getViewName()).descending(scanQuery.isDescending()).staleOk(scanQuery.isStaleOk()).reduce(
+                        false);
+        ViewQuery startQuery = sampleQuery.clone();
+        if (scanQuery.getStartKey() != null) {
+            startQuery.startKey(scanQuery.getStartKey()).startDocId(scanQuery.getStartDocId());
+        }
+        ViewResultReader.RowBinder keyBinder = new ViewRowBinder(readerFor(JsonNode.class), null, null);
+
+        long first;
+        long last;
+        try (ViewResultReader reader = openReader(startQuery.clone().limit(0), keyBinder)) {
+            first = reader.getOffset();
+            last = reader.getTotalRows();
+        }
+        if (scanQuery.getEndKey() != null) {
+            try (ViewResultReader reader = openReader(sampleQuery.clone().startKey(scanQuery.getEndKey()).limit(0),
+                    keyBinder)) {
+                if (reader.getOffset() > first) {
+                    last = reader.getOffset();
+                }
+            }
+        }
+
+        List<Long> positions = new ArrayList<>();
+        for (int i = 1; i < partitions; i++) {
+            long position = i * (last - first) / partitions;
+            if (position > 0 && !positions.contains(position)) {
+                positions.add(position);
+            }
+        }
+        List<JsonNode> sampledKeys = new BatchRunner(executor, bulkConcurrency).run(positions.iterator(),
+                position -> {
+                    try (ViewResultReader reader = openReader(startQuery.clone().skip(Math.toIntExact(position))
+                            .limit(1), keyBinder)) {
+                        return reader.hasNext() ? (JsonNode) reader.next().getKey() : null;
+                    }
+                });
+
+        List<JsonNode> splitKeys = new ArrayList<>();
+        for (JsonNode key : sampledKeys) {
+            if (key != null && (splitKeys.isEmpty() || !key.equals(splitKeys.get(splitKeys.size() - 1)))) {
+                splitKeys.add(key);
+            }
+        }
+        return splitKeys;
+    }
+
+    @Override
+    public Publisher<ViewResultRow> publish(ViewParams viewParams) {
+        return new IteratorPublisher<>(() -> openReader(viewParams));
+    }
+
+    @Override
+    public Publisher<T> publishAll() {
+        return new IteratorPublisher<>(() -> findAll().iterator());
+    }
+
+    /**
+     * Creates a ViewQuery 
+     */
+    protected ViewQuery createQuery(String viewName) {
+        return new ViewQuery().dbPath(db.path()).designDocId(NameConventions.designDocName(type)).viewName(viewName);
+    }
+
+    /**
+     * Creates a ViewQuery from the given parameters. The design document defaults to the one of {@link #type}.
+     */
+    protected ViewQuery createQuery(ViewParams viewParams) {
+        ViewQuery viewQuery = new ViewQuery().dbPath(db.path());
+        viewBuilder.configure(viewQuery, viewParams);
+        if (viewQuery.getDesignDocId() == null) {
+            viewQuery.designDocId(NameConventions.designDocName(type));
+        }
+        return viewQuery;
+    }
+
+    /**
+     * Sends the given query like {@link CouchDbConnector#queryForStream(ViewQuery)} but returns the response, so that
+     * the request can be aborted.
+     * 
+     * @throws DbAccessException Thrown if the query fails.
+     */
+    protected HttpResponse queryForResponse(ViewQuery viewQuery) {
+        HttpResponse response;
+        if (viewQuery.hasMultipleKeys()) {
+            response = db.getConnection().postUncached(viewQuery.buildQuery(), viewQuery.getKeysAsJson());
+        } else {
+            response = db.getConnection().getUncached(viewQuery.buildQuery());
+        }
+        if (!response.isSuccessful()) {
+            try {
+                throw StdResponseHandler.createDbAccessException(response);
+            } finally {
+                response.releaseConnection();
+            }
+        }
+        return response;
+    }
+
+    private HttpResponse queryForResponse(ViewQuery viewQuery, CachedResponses responses) {
+        HttpResponse response = queryForResponse(viewQuery);
+        return responses != null ? responses.record(viewQuery, response) : response;
+    }
+
+    /**
+     * Sends the query and returns a reader of the response. The reader must be closed.
+     */
+    protected ViewResultReader openReader(ViewParams viewParams) {
+        return openReader(createQuery(viewParams), createRowBinder(viewParams));
+    }
+
+    /**
+     * Sends the query and returns a reader of the response with the given binder. The reader must be closed.
+     * <p>
+     * If {@link #metrics} are enabled, the reading is recorded when the reader is finished or closed. The network time
+     * is the time waiting for the response and for its body, the rest of the time reading is the deserialization time.
+     */
+    protected ViewResultReader openReader(ViewQuery viewQuery, ViewResultReader.RowBinder binder) {
+        return openReader(viewQuery, binder, null);
+    }
+
+    /**
+     * Sends the query and returns a reader of the response with the given binder. The reader must be closed.
+     * <p>
+     * If {@link #metrics} are enabled or if the query is traced, the reading is measured and recorded when the reader is
+     * finished or closed. The network time is the time waiting for the response and for its body, the rest of the time
+     * reading is the deserialization time.
+     * 
+     * @param trace null or the trace of the query
+     */
+    protected ViewResultReader openReader(ViewQuery viewQuery, ViewResultReader.RowBinder binder, QueryTrace trace) {
+        return openReader(viewQuery, binder, trace, null);
+    }
+
+    /**
+     * Like {@link #openReader(ViewQuery, ViewResultReader.RowBinder, QueryTrace)}, but a response that has already been
+     * recorded is replayed without sending the query and without recording the reading. Otherwise the response is
+     * recorded, i.e. its body is read at once.
+     * 
+     * @param trace null or the trace of the query
+     * @param responses null or the responses that are replayed resp. recorded
+     */
+    protected ViewResultReader openReader(ViewQuery viewQuery, ViewResultReader.RowBinder binder, QueryTrace trace,
+            CachedResponses responses) {
+        HttpResponse replayed = responses != null ? responses.replay(viewQuery) : null;
+        if (replayed != null) {
+            return new ViewResultReader(replayed, objectMapper.getFactory(), binder);
+        }
+
+        boolean metered = metrics.isEnabled();
+        if (!metered && trace == null) {
+            return new ViewResultReader(queryForResponse(viewQuery, responses), objectMapper.getFactory(), binder);
+        }
+
+        long start = System.nanoTime();
+        HttpResponse response = queryForResponse(viewQuery, responses);
+        long responseNanos = System.nanoTime() - start;
+
+        return new ViewResultReader(response, objectMapper.getFactory(), binder, reader -> {
+            long deserializationNanos = Math.max(0, reader.getReadNanos() - reader.getNetworkNanos());
+            if (metered) {
+                long bytesSent = viewQuery.hasMultipleKeys() ? viewQuery.getKeysAsJson().getBytes(
+                        StandardCharsets.UTF_8).length : 0;
+                String designDoc = viewQuery.getDesignDocId() == null ? "" : viewQuery.getDesignDocId();
+                String view = viewQuery.getViewName() == null ? "_all_docs" : viewQuery.getViewName();
+                metrics.recordView(type.getSimpleName(), designDoc, view, reader.getRowCount(), bytesSent, reader
+                        .getByteCount(), responseNanos + reader.getNetworkNanos(), deserializationNanos);
+            }
+            if (trace != null) {
+                trace.addResponse(responseNanos, reader.getNetworkNanos(), deserializationNanos, reader
+                        .getRowCount(), reader.getByteCount());
+            }
+        });
+    }
+
+    /**
+     * Starts the trace of a query for the slow query log, see {@link #setSlowQueryThresholdMillis(long)}.
+     * 
+     * @return Returns null if the query is not traced.
+     */
+    protected QueryTrace startTrace(String operation) {
+        if (slowQueryThresholdMillis <= 0 || slowQuerySampleRate < 1 && ThreadLocalRandom.current()
+                .nextDouble() >= slowQuerySampleRate) {
+            return null;
+        }
+        return new QueryTrace(operation, slowQueryThresholdMillis);
+    }
+
+    protected void finishTrace(QueryTrace trace) {
+        if (trace != null) {
+            trace.finish();
+        }
+    }
+
+    /**
+     * Creates a query with the given builder and records the time it takes.
+     * 
+     * @param trace null or the trace of the query
+     */
+    protected ViewQuery buildQuery(QueryTrace trace, Supplier<ViewQuery> builder) {
+        if (trace == null) {
+            return builder.get();
+        }
+        long start = System.nanoTime();
+        ViewQuery viewQuery = builder.get();
+        trace.addBuild(viewQuery, System.nanoTime() - start);
+        return viewQuery;
+    }
+
+    /**
+     * Reads the documents included in the rows of the given query.
+     * 
+     * @param trace null or the trace of the query
+     */
+    protected List<T> readDocuments(ViewQuery viewQuery, QueryTrace trace) {
+        List<T> documents = new ArrayList<>();
+        try (ViewResultReader reader = openReader(viewQuery, this::readDocumentRow, trace)) {
+            while (reader.hasNext()) {
+                T document = reader.next().getDoc();
+                if (document != null) {
+                    documents.add(document);
+                }
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Creates the binder of the rows of a view result. The key, the value and the document are bound directly from the
+     * parser to the types given by the parameters.
+     */
+    protected ViewResultReader.RowBinder createRowBinder(ViewParams viewParams) {
+        return createRowBinder(viewParams, ReturnType.RESULT);
+    }
+
+    /**
+     * Creates the binder of the rows of {@link #find(ViewParams)}. If the return type is a projection, the other fields
+     * are skipped while parsing, e.g. neither key nor value nor document are decoded for the return type "id".
+     */
+    protected ViewResultReader.RowBinder createRowBinder(ViewParams viewParams, ReturnType returnType) {
+        boolean all = returnType == ReturnType.RESULT;
+        return new ViewRowBinder(all || returnType == ReturnType.KEY ? readerFor(viewParams.getKeyType()) : null,
+                all || returnType == ReturnType.VALUE ? readerFor(viewParams.getValueType()) : null,
+                all || returnType == ReturnType.DOC ? readerFor(viewParams.getDocumentType()) : null);
+    }
+
+    /**
+     * Returns the cached reader of the given type.
+     * 
+     * @param valueType null or the type
+     * @return Returns null if the type is null.
+     */
+    protected ObjectReader readerFor(Class<?> valueType) {
+        return valueType == null ? null : readers.computeIfAbsent(valueType, objectMapper::readerFor);
+    }
+
+    /**
+     * Transforms a Ektorp-specific view result to CouchRepository's view result. {@link #find(ViewParams)} does not
+     * use this method, because it binds the rows while reading the response, see {@link #createRowBinder(ViewParams)}.
+     * 
+     * @param viewResult
+     *            the Ektorp-specific view result
+     * @param viewParams
+     *            the parameters inform about the return type
+     * @return Returns the transformed view result.
+     */
+    protected ViewResult toViewResult(org.ektorp.ViewResult viewResult, ViewParams viewParams) {
+        ViewResult result = new ViewResult();
+        result.setOffset(result.getOffset());
+        result.setTotalRows(viewResult.getTotalRows());
+        result.setUpdateSeq(viewResult.getUpdateSeq());
+
+        List<Row> rows = viewResult.getRows();
+        List<ViewResultRow> resultRows = new ArrayList<>();
+        for (Row row : rows) {
+            ViewResultRow resultRow = new ViewResultRow();
+            resultRow.setId(id(row));
+            resultRow.setDoc(toObject(row.getDocAsNode(), viewParams.getDocumentType()));
+            resultRow.setKey(toObject(row.getKeyAsNode(), viewParams.getKeyType()));
+            resultRow.setValue(toObject(row.getValueAsNode(), viewParams.getValueType()));
+            resultRows.add(resultRow);
+        }
+
+        result.setRows(resultRows);
+
+        return result;
+    }
+
+    private String id(Row row) {
+        try {
+            return row.getId();
+        } catch (NullPointerException e) {
+            return null; // happens when reduce = true 
+        }
+    }
+
+    protected Object toObject(JsonNode jsonNode, Class<?> valueType) {
+        if (jsonNode == null || valueType == null) {
+            return null;
+        } else {
+            try {
+                return objectMapper.treeToValue(jsonNode, valueType);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    /**
+     * Finds a document with the help of {@link #documentCache}.
+     * 
+     * @return Returns null if the document does not exist.
+     */
+    protected T findCached(String couchId) {
+        CachedDocument cached = documentCache.get(couchId);
+        if (cached != null && documentCache.isFresh(cached)) {
+            documentCache.recordHit();
+            return toEntity(cached.getContent());
+        }
+
+        Map<String, String> headers = cached == null ? Collections.<String, String> emptyMap() : Collections
+                .singletonMap("If-None-Match", "\"" + cached.getRevision() + "\"");
+        // a change while the document is read must not be overwritten by the read document
+        long generation = documentCache.getGeneration();
+        HttpResponse response = db.getConnection().get(URI.of(db.path()).append(couchId).toString(), headers);
+        try {
+            if (response.getCode() == 304 && cached != null) {
+                documentCache.revalidated(cached);
+                documentCache.recordRevalidation();
+                return toEntity(cached.getContent());
+            }
+            documentCache.recordMiss();
+            if (response.getCode() == 404) {
+                documentCache.invalidate(couchId);
+                return null;
+            } else if (!response.isSuccessful()) {
+                throw StdResponseHandler.createDbAccessException(response);
+            }
+            byte[] content = StreamUtils.copyToByteArray(response.getContent());
+            documentCache.put(couchId, unquote(response.getETag()), content, generation);
+            return toEntity(content);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            response.releaseConnection();
+        }
+    }
+
+    /**
+     * Finds documents with the help of {@link #documentCache}. The documents that are not fresh in the cache are
+     * loaded with a single query.
+     * 
+     * @param trace null or the trace of the query
+     * @return Returns the existing documents in the order of the given IDs.
+     */
+    protected List<T> findAllCached(List<String> couchIds, QueryTrace trace) {
+        Map<String, byte[]> contents = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String couchId : couchIds) {
+            CachedDocument cached = documentCache.get(couchId);
+            if (cached != null && documentCache.isFresh(cached)) {
+                documentCache.recordHit();
+                contents.put(couchId, cached.getContent());
+            } else {
+                missing.add(couchId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            ViewQuery viewQuery = buildQuery(trace, () -> createQuery("by_id").keys(missing).reduce(false)
+                    .includeDocs(true));
+            long generation = documentCache.getGeneration();
+            try (ViewResultReader reader = openReader(viewQuery, this::readRawDocumentRow, trace)) {
+                while (reader.hasNext()) {
+                    ViewResultRow row = reader.next();
+                    String revision = row.getValue();
+                    CachedDocument cached = documentCache.get(row.getId());
+                    if (cached != null && revision != null && revision.equals(cached.getRevision())) {
+                        documentCache.revalidated(cached);
+                        documentCache.recordRevalidation();
+                    } else {
+                        documentCache.recordMiss();
+                        // a document without revision cannot be revalidated
+                        if (revision != null) {
+                            documentCache.put(row.getId(), revision, row.getDoc(), generation);
+                        }
+                    }
+                    contents.put(row.getId(), row.getDoc());
+                    missing.remove(row.getId());
+                }
+            }
+            for (String couchId : missing) {
+                // the document does not exist (anymore)
+                documentCache.recordMiss();
+                documentCache.invalidate(couchId);
+            }
+        }
+
+        long start = trace != null ? System.nanoTime() : 0;
+        List<T> result = new ArrayList<>();
+        for (String couchId : couchIds) {
+            byte[] content = contents.get(couchId);
+            if (content != null) {
+                result.add(toEntity(content));
+            }
+        }
+        if (trace != null) {
+            trace.addConversion(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a row of a view with included document, e.g. of <i>by_id</i>. The document is copied as it is, the value
+     * is the revision of the document, i.e. it does not depend on what the view emits. The value is null if the
+     * document has no revision.
+     */
+    protected ViewResultRow readRawDocumentRow(JsonParser parser) throws IOException {
+        ViewResultRow row = new ViewResultRow();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("id".equals(name)) {
+                row.setId(parser.getValueAsString());
+            } else if ("doc".equals(name) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(content)) {
+                    generator.writeStartObject();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        boolean revision = "_rev".equals(parser.getCurrentName());
+                        // copies the name and the value
+                        generator.copyCurrentStructure(parser);
+                        if (revision && parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+                            row.setValue(parser.getText());
+                        }
+                    }
+                    generator.writeEndObject();
+                }
+                row.setDoc(content.toByteArray());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Looks the given IDs up in <i>_all_docs</i>, see {@link #findRevisionsById(Iterable)}.
+     * 
+     * @return Returns the revisions of the existing documents by their ID.
+     */
+    protected Map<String, String> findRevisions(Collection<String> couchIds) {
+        Map<String, String> revisions = new HashMap<>();
+        for (ViewResultRow row : lookUpAllDocs(couchIds, false)) {
+            revisions.put(row.getId(), row.getValue());
+        }
+        return revisions;
+    }
+
+    /**
+     * Looks the given IDs up in <i>_all_docs</i> in batches of {@link #getKeysBatchSize()}, concurrently like the bulk
+     * requests.
+     * 
+     * @param includeDocs true if the documents shall be read as well
+     * @return Returns the rows of the existing documents, see {@link #readAllDocsRow(JsonParser)}.
+     */
+    protected List<ViewResultRow> lookUpAllDocs(Collection<String> couchIds, boolean includeDocs) {
+        List<List<ViewResultRow>> batchRows = new BatchRunner(executor, bulkConcurrency).run(partition(couchIds
+                .iterator(), keysBatchSize), batch -> {
+                    ViewQuery viewQuery = new ViewQuery().allDocs().dbPath(db.path()).includeDocs(includeDocs).keys(
+                            batch);
+                    List<ViewResultRow> rows = new ArrayList<>();
+                    try (ViewResultReader reader = openReader(viewQuery, this::readAllDocsRow)) {
+                        while (reader.hasNext()) {
+                            ViewResultRow row = reader.next();
+                            if (row.getValue() != null) {
+                                rows.add(row);
+                            }
+                        }
+                    }
+                    return rows;
+                });
+
+        List<ViewResultRow> rows = new ArrayList<>();
+        batchRows.forEach(rows::addAll);
+        return rows;
+    }
+
+    /**
+     * Reads a row of <i>_all_docs</i>. The value is reduced to the revision, it is null if the document is missing or
+     * deleted. An included document is copied as it is.
+     */
+    protected ViewResultRow readAllDocsRow(JsonParser parser) throws IOException {
+        ViewResultRow row = new ViewResultRow();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("id".equals(name)) {
+                row.setId(parser.getValueAsString());
+            } else if ("value".equals(name) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                JsonNode value = parser.readValueAsTree();
+                if (!value.path("deleted").asBoolean()) {
+                    row.setValue(value.path("rev").asText(null));
+                }
+            } else if ("doc".equals(name) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(content)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                row.setDoc(content.toByteArray());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reads a row with included document. The document is bound to an entity while it is parsed, like
+     * {@link #toEntity(byte[])} does.
+     */
+    protected ViewResultRow readDocumentRow(JsonParser parser) throws IOException {
+        ViewResultRow row = new ViewResultRow();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("id".equals(name)) {
+                row.setId(parser.getValueAsString());
+            } else if ("doc".equals(name) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                row.setDoc(documentReader().readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reads an entity like Ektorp does.
+     */
+    protected T toEntity(byte[] content) {
+        try {
+            return documentReader().readValue(content);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the reader of the entities, which is configured like the one of Ektorp.
+     */
+    protected ObjectReader documentReader() {
+        if (documentReader == null) {
+            documentReader = new StdObjectMapperFactory().createObjectMapper(db).readerFor(type);
+        }
+        return documentReader;
+    }
+
+    private Map<String, I> toCouchIdMap(Iterable<I> ids) {
+        Assert.notNull(ids, "The given list of IDs must not be null.");
+
+        Map<String, I> idsByCouchId = new LinkedHashMap<>();
+        for (I id : ids) {
+            Assert.notNull(id, "The given list of IDs must not contain null.");
+            idsByCouchId.put(ei.toCouchId(id), id);
+        }
+        return idsByCouchId;
+    }
+
+    private static String unquote(String etag) {
+        if (etag != null && etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            return etag.substring(1, etag.length() - 1);
+        }
+        return etag;
+    }
+
+    protected void evict(String couchId) {
+        if (documentCache != null && couchId != null) {
+            documentCache.invalidate(couchId);
+        }
+        invalidateQueries();
+    }
+
+    /**
+     * Evicts the given entities from the document cache and invalidates the query cache once.
+     */
+    protected void evictAll(Iterable<? extends T> entities) {
+        if (documentCache != null) {
+            for (T entity : entities) {
+                String couchId = ei.getCouchId(entity);
+                if (couchId != null) {
+                    documentCache.invalidate(couchId);
+                }
+            }
+        }
+        invalidateQueries();
+    }
+
+    protected void invalidateQueries() {
+        if (queryCache != null) {
+            queryCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the cached result of a query if it is fresh, if stale results are accepted or if the update sequence of
+     * the database has not moved. Otherwise, the query is sent and its result is cached.
+     * 
+     * @param key the canonical form of the query, see {@link #queryKey(ViewParams)}
+     * @param maxStaleMillis the time a result is used without checking the update sequence or 0
+     * @param staleOk true if any cached result is accepted, e.g. because the query is sent with <i>stale=ok</i>
+     * @param query sends the query
+     * @param weigher estimates the size of the result in bytes
+     */
+    protected <R> R cachedQuery(String key, long maxStaleMillis, boolean staleOk, Supplier<R> query,
+            ToLongFunction<R> weigher) {
+        CachedResult cached = queryCache.get(key);
+        if (cached != null && (staleOk || queryCache.isFresh(cached, maxStaleMillis))) {
+            queryCache.recordHit();
+            return cached.getValue();
+        }
+
+        // a stale result is not known to match any update sequence
+        String updateSeq = staleOk ? null : currentUpdateSeq();
+        if (cached != null && updateSeq != null && updateSeq.equals(cached.getUpdateSeq())) {
+            queryCache.revalidated(cached);
+            queryCache.recordRevalidation();
+            return cached.getValue();
+        }
+
+        queryCache.recordMiss();
+        R result = query.get();
+        queryCache.put(key, result, updateSeq, weigher.applyAsLong(result));
+        return result;
+    }
+
+    /**
+     * @return Returns the update sequence of the last change seen by the follower of the changes if it is connected,
+     *         otherwise the update sequence in the database info.
+     */
+    protected String currentUpdateSeq() {
+        ChangesFollower follower = changesFollower;
+        if (follower != null && follower.isConnected()) {
+            return follower.getLastSeq();
+        }
+        return db.getDbInfo().getUpdateSeqAsString();
+    }
+
+    /**
+     * Returns a key of the given query for {@link #queryCache}: the request as it is sent except for <i>stale</i>,
+     * i.e. design document, view, keys, range and flags, the types the result is bound to and the return type.
+     */
+    protected String queryKey(ViewParams viewParams) {
+        ViewQuery viewQuery = createQuery(viewParams);
+        String request = STALE_PARAMETER.matcher(viewQuery.buildQuery()).replaceAll("");
+        return request + " " + (viewQuery.hasMultipleKeys() ? viewQuery.getKeysAsJson() : "") + " " + viewParams
+                .getKeyType() + " " + viewParams.getValueType() + " " + viewParams.getDocumentType() + " " + viewParams
+                        .getReturnType();
+    }
+
+    /**
+     * Calls the given operation and records its duration and its failure, see {@link #setMetrics(RepositoryMetrics)}.
+     */
+    protected <R> R measured(String operation, Supplier<R> call) {
+        if (!metrics.isEnabled()) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return call.get();
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            metrics.recordOperation(type.getSimpleName(), operation, System.nanoTime() - start, error);
+        }
+    }
+
+    protected void measured(String operation, Runnable call) {
+        measured(operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    protected Map<String, Object> createBulkDeleteDocument(String id, String revision) {
+        Map<String, Object> map = new HashMap<String, Object>(3);
+        map.put("_id", id);
         map.put("_rev", revision);
         map.put("_deleted", true);
         return map;
     }
 
     protected void executeBulk(Collection<? extends Object> collection) {
+        executeBulk(toBatches(collection.iterator()));
+    }
+
+    /**
+     * Splits the given documents into batches, see {@link #setBulkBatchSize(int)} and {@link #setBulkMaxBytes(long)}.
+     * The size of each document is computed once, if there is a size limit or if metrics are enabled.
+     */
+    protected Iterator<List<Object>> toBatches(Iterator<?> documents) {
+        return new BulkBatchIterator(documents, bulkBatchSize, bulkMaxBytes, bulkMaxBytes > 0 || metrics.isEnabled()
+                ? this::serializedSize : null);
+    }
+
+    protected long serializedSize(Object document) {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            objectMapper.writeValue(out, document);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.getCount();
+    }
+
+    /**
+     * Sends the given batches with at most {@link #bulkConcurrency} bulk requests in flight.
+     * 
+     * @param batches the batches, consumed lazily
+     * @throws BulkOperationException Thrown when all batches have been processed if there are any errors. Each error
+     *             knows the index of its batch.
+     */
+    protected void executeBulk(Iterator<? extends Collection<? extends Object>> batches) {
+
+        List<List<BulkOperationError>> batchErrors = new BatchRunner(executor, bulkConcurrency).run(batches,
+                this::sendBulk);
+
+        List<BulkOperationError> errors = new ArrayList<>();
+        for (int batch = 0; batch < batchErrors.size(); batch++) {
+            for (BulkOperationError error : batchErrors.get(batch)) {
+                error.setBatch(batch);
+                errors.add(error);
+            }
+        }
+        throwOnErrors(errors);
+    }
+
+    /**
+     * Sends a single bulk request.
+     * 
+     * @param collection the documents
+     * @return Returns the errors of the bulk operation.
+     */
+    protected List<BulkOperationError> sendBulk(Collection<? extends Object> collection) {
 
         logger.debug(collection.size() + " documents are going to be processed ...");
 
+        // the size is known if the batch has been created by toBatches, the documents are not serialized again
+        long bytes = collection instanceof BulkBatchIterator.Batch ? ((BulkBatchIterator.Batch) collection).getBytes()
+                : -1;
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         List<DocumentOperationResult> results;
         if (allOrNothing) {
             results = db.executeAllOrNothing(collection);
@@ -297,18 +2090,23 @@ public class EktorpCrudRepository<T, I extends Serializable> implements CouchDbC
             results = db.executeBulk(collection);
         }
 
-        // handle errors
         List<BulkOperationError> errors = new ArrayList<>();
-        List<String> messages = new ArrayList<>();
         for (DocumentOperationResult result : results) {
             if (result.getError() != null) {
                 errors.add(new BulkOperationError(result.getId(), result.getRevision(), result.getError(), result
                         .getReason()));
-                messages.add(result.toString());
             }
         }
+        if (metrics.isEnabled()) {
+            metrics.recordBulkBatch(type.getSimpleName(), collection.size(), errors.size(), bytes, System.nanoTime()
+                    - start);
+        }
+        return errors;
+    }
+
+    protected void throwOnErrors(List<BulkOperationError> errors) {
         if (!errors.isEmpty()) {
-            throw new BulkOperationException(StringUtils.join(messages, ","), errors);
+            throw new BulkOperationException(StringUtils.join(errors, ","), errors);
         } else {
             logger.debug("All documents have been processed.");
         }
@@ -0,0 +1,102 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.ektorp.ViewQuery;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
+
+/**
+ * This internal class reads the partitions of a view, each partition with its own request. A partition is requested
+ * only when it is traversed, i.e. the partitions read concurrently by a parallel stream hold a connection each.
+ * <p>
+ * {@link #trySplit()} splits off the first half of the partitions that have not been started yet. Thus the encounter
+ * order is the order of the partitions.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class PartitionSpliterator implements Spliterator<ViewResultRow> {
+
+    private final List<ViewQuery> partitions;
+
+    private final Function<ViewQuery, ViewResultReader> opener;
+
+    private final Set<ViewResultReader> openReaders;
+
+    private int index;
+
+    private final int end;
+
+    private ViewResultReader reader;
+
+    /**
+     * @param partitions the queries of the partitions in the order of the view
+     * @param opener sends the query of a partition
+     * @param openReaders a thread-safe set that holds the readers while they are open, so that they can be closed when
+     *            the stream is closed
+     */
+    public PartitionSpliterator(List<ViewQuery> partitions, Function<ViewQuery, ViewResultReader> opener,
+            Set<ViewResultReader> openReaders) {
+        this(partitions, opener, openReaders, 0, partitions.size());
+    }
+
+    private PartitionSpliterator(List<ViewQuery> partitions, Function<ViewQuery, ViewResultReader> opener,
+            Set<ViewResultReader> openReaders, int index, int end) {
+        super();
+        this.partitions = partitions;
+        this.opener = opener;
+        this.openReaders = openReaders;
+        this.index = index;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ViewResultRow> action) {
+        while (true) {
+            if (reader == null) {
+                if (index >= end) {
+                    return false;
+                }
+                reader = opener.apply(partitions.get(index++));
+                openReaders.add(reader);
+            }
+            if (reader.hasNext()) {
+                action.accept(reader.next());
+                return true;
+            }
+            reader.close();
+            openReaders.remove(reader);
+            reader = null;
+        }
+    }
+
+    @Override
+    public Spliterator<ViewResultRow> trySplit() {
+        if (reader != null || end - index < 2) {
+            return null;
+        }
+        int mid = index + (end - index) / 2;
+        PartitionSpliterator prefix = new PartitionSpliterator(partitions, opener, openReaders, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    /**
+     * @return Returns {@link Long#MAX_VALUE}, because the size of a partition is unknown. Thus a parallel stream splits
+     *         down to single partitions.
+     */
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+}
@@ -0,0 +1,158 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.ViewQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This internal class collects the time spent in the phases of a query and logs the query if it took longer than a
+ * threshold:
+ * <ul>
+ * <li><i>build</i>: creating the query from the parameters</li>
+ * <li><i>first byte</i>: sending the request and waiting for the response</li>
+ * <li><i>body</i>: waiting for the bytes of the response body</li>
+ * <li><i>parse</i>: parsing the body and binding the rows, e.g. to entities</li>
+ * <li><i>conversion</i>: converting the rows to the returned result</li>
+ * </ul>
+ * The query is logged as it is sent, but each parameter value and each key is truncated to
+ * {@value #MAX_VALUE_LENGTH} characters and only the first {@value #MAX_KEYS} keys are logged.
+ * <p>
+ * A trace belongs to a single query, whose batches may be recorded concurrently. The logger is the one of this class,
+ * the level is WARN.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class QueryTrace {
+
+    public static final int MAX_VALUE_LENGTH = 64;
+
+    public static final int MAX_KEYS = 3;
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryTrace.class);
+
+    private final String operation;
+
+    private final long thresholdNanos;
+
+    private final long start = System.nanoTime();
+
+    private ViewQuery query;
+
+    private long buildNanos;
+
+    private long firstByteNanos;
+
+    private long bodyNanos;
+
+    private long parseNanos;
+
+    private long conversionNanos;
+
+    private long rows;
+
+    private long bytes;
+
+    private int requests;
+
+    /**
+     * @param operation the name of the repository method
+     * @param thresholdMillis the duration above which the query is logged
+     */
+    public QueryTrace(String operation, long thresholdMillis) {
+        super();
+        this.operation = operation;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Records the creation of the query.
+     */
+    public synchronized void addBuild(ViewQuery query, long nanos) {
+        this.query = query;
+        this.buildNanos += nanos;
+    }
+
+    /**
+     * Records the reading of a response.
+     */
+    public synchronized void addResponse(long firstByteNanos, long bodyNanos, long parseNanos, long rows, long bytes) {
+        this.requests++;
+        this.firstByteNanos += firstByteNanos;
+        this.bodyNanos += bodyNanos;
+        this.parseNanos += parseNanos;
+        this.rows += rows;
+        this.bytes += bytes;
+    }
+
+    public synchronized void addConversion(long nanos) {
+        this.conversionNanos += nanos;
+    }
+
+    /**
+     * Logs the query if it has been slow.
+     */
+    public synchronized void finish() {
+        long totalNanos = System.nanoTime() - start;
+        if (totalNanos >= thresholdNanos && logger.isWarnEnabled()) {
+            logger.warn(String.format(
+                    "slow %s (%.1f ms): %s, %d rows, %d bytes in %d request(s); build %.1f ms, first byte %.1f ms, "
+                            + "body %.1f ms, parse %.1f ms, conversion %.1f ms", operation, millis(totalNanos),
+                    describe(query), rows, bytes, requests, millis(buildNanos), millis(firstByteNanos), millis(
+                            bodyNanos), millis(parseNanos), millis(conversionNanos)));
+        }
+    }
+
+    /**
+     * Describes the given query with truncated parameter values and keys.
+     */
+    public static String describe(ViewQuery query) {
+        if (query == null) {
+            return "no query";
+        }
+        String url = query.buildQuery();
+        int queryStart = url.indexOf('?');
+        StringBuilder description = new StringBuilder(queryStart < 0 ? url : url.substring(0, queryStart));
+        if (queryStart >= 0) {
+            char separator = '?';
+            for (String parameter : url.substring(queryStart + 1).split("&")) {
+                int valueStart = parameter.indexOf('=') + 1;
+                description.append(separator).append(parameter, 0, valueStart).append(truncate(decode(parameter
+                        .substring(valueStart))));
+                separator = '&';
+            }
+        }
+        if (query.hasMultipleKeys()) {
+            Collection<?> keys = query.getKeysValues();
+            description.append(" keys(").append(keys.size()).append(")=[");
+            Iterator<?> it = keys.iterator();
+            for (int i = 0; i < MAX_KEYS && it.hasNext(); i++) {
+                description.append(i == 0 ? "" : ", ").append(truncate(String.valueOf(it.next())));
+            }
+            description.append(keys.size() > MAX_KEYS ? ", ...]" : "]");
+        }
+        return description.toString();
+    }
+
+    private static String decode(String parameter) {
+        try {
+            return URLDecoder.decode(parameter, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return parameter;
+        }
+    }
+
+    private static String truncate(String value) {
+        return value.length() <= MAX_VALUE_LENGTH ? value : value.substring(0, MAX_VALUE_LENGTH) + "...";
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+}
@@ -0,0 +1,98 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.ektorp.ViewQuery;
+
+/**
+ * This internal class walks through a view page by page, i.e. only one page of rows is held in memory at once.
+ * <p>
+ * The pages are not requested with <i>skip</i> but with a bookmark: each page is fetched with <i>limit</i> = page
+ * size + 1, and the additional row supplies <i>startkey</i> and <i>startkey_docid</i> of the next page. Thus, CouchDB
+ * does not have to walk past the rows of the previous pages.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ *
+ * @param <E> the type of the elements of a page
+ */
+public class ViewPageIterator<E> implements Iterator<E> {
+
+    private final ViewQuery query;
+
+    private final int pageSize;
+
+    private final Function<ViewQuery, List<E>> pageLoader;
+
+    private final Function<E, Object> keyOf;
+
+    private final Function<E, String> docIdOf;
+
+    private Iterator<E> page = Collections.emptyIterator();
+
+    private boolean firstPage = true;
+
+    private Object nextKey;
+
+    private String nextDocId;
+
+    /**
+     * @param query the query of the first page. It is not changed.
+     * @param pageSize the maximum number of rows per page
+     * @param pageLoader executes the query of a page
+     * @param keyOf returns the view key of an element
+     * @param docIdOf returns the document ID of an element
+     */
+    public ViewPageIterator(ViewQuery query, int pageSize, Function<ViewQuery, List<E>> pageLoader,
+            Function<E, Object> keyOf, Function<E, String> docIdOf) {
+        super();
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.query = query;
+        this.pageSize = pageSize;
+        this.pageLoader = pageLoader;
+        this.keyOf = keyOf;
+        this.docIdOf = docIdOf;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && (firstPage || nextDocId != null)) {
+            page = loadPage();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    private Iterator<E> loadPage() {
+        ViewQuery pageQuery = query.clone().limit(pageSize + 1);
+        if (!firstPage) {
+            pageQuery.startKey(nextKey).startDocId(nextDocId);
+        }
+        firstPage = false;
+
+        List<E> rows = pageLoader.apply(pageQuery);
+        if (rows.size() > pageSize) {
+            E first = rows.get(pageSize);
+            nextKey = keyOf.apply(first);
+            nextDocId = docIdOf.apply(first);
+            rows = rows.subList(0, pageSize);
+        } else {
+            nextKey = null;
+            nextDocId = null;
+        }
+        return rows.iterator();
+    }
+
+}
@@ -0,0 +1,273 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.ektorp.http.HttpResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
+import it.vinicioflamini.sharedlib.couchdb.internal.MeteredInputStream;
+
+/**
+ * This internal class reads the response of a view query row by row with a streaming parser, i.e. the whole response
+ * is never held in memory.
+ * <p>
+ * The properties before the rows (<i>total_rows</i>, <i>offset</i>, <i>update_seq</i>) are available after the
+ * construction. The connection is released when the last row has been read. If the reader is closed before, the
+ * request is aborted instead of reading the rest of the response.
+ * <p>
+ * The size of the response body is counted. A {@link Listener} is notified once when the reader is finished or closed,
+ * e.g. to record the number of rows and the time spent reading them.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ViewResultReader implements Iterator<ViewResultRow>, Closeable {
+
+    /**
+     * Binds a single row.
+     */
+    public interface RowBinder {
+
+        /**
+         * @param parser the parser, positioned at the start of the row object. When returning, the parser must be
+         *            positioned at the end of the row object.
+         * @return Returns the bound row.
+         */
+        ViewResultRow bind(JsonParser parser) throws IOException;
+
+    }
+
+    /**
+     * Is notified when a reader is finished or closed.
+     */
+    public interface Listener {
+
+        /**
+         * @param reader the reader, see {@link ViewResultReader#getRowCount()}, {@link ViewResultReader#getByteCount()},
+         *            {@link ViewResultReader#getReadNanos()} and {@link ViewResultReader#getNetworkNanos()}
+         */
+        void onClose(ViewResultReader reader);
+
+    }
+
+    private final HttpResponse response;
+
+    private final MeteredInputStream content;
+
+    private final JsonParser parser;
+
+    private final RowBinder binder;
+
+    private final Listener listener;
+
+    private long totalRows;
+
+    private int offset;
+
+    private long updateSeq;
+
+    private ViewResultRow next;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    private long rowCount;
+
+    private long readNanos;
+
+    private boolean notified;
+
+    public ViewResultReader(HttpResponse response, JsonFactory jsonFactory, RowBinder binder) {
+        this(response, jsonFactory, binder, null);
+    }
+
+    /**
+     * @param response the response
+     * @param jsonFactory creates the parser
+     * @param binder binds the rows
+     * @param listener null or the listener. The time spent reading is only measured if there is a listener.
+     */
+    public ViewResultReader(HttpResponse response, JsonFactory jsonFactory, RowBinder binder, Listener listener) {
+        super();
+        this.response = response;
+        this.content = new MeteredInputStream(response.getContent(), listener != null);
+        this.binder = binder;
+        this.listener = listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        try {
+            this.parser = jsonFactory.createParser(content);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("unexpected view result, missing start of object");
+            }
+            if (!readProperties()) {
+                finish();
+            }
+        } catch (IOException | RuntimeException e) {
+            response.abort();
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        } finally {
+            if (listener != null) {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+        if (finished) {
+            notifyListener();
+        }
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public long getUpdateSeq() {
+        return updateSeq;
+    }
+
+    /**
+     * @return Returns the number of rows read so far.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Returns the size of the response body read so far.
+     */
+    public long getByteCount() {
+        return content.getCount();
+    }
+
+    /**
+     * @return Returns the time spent reading the response so far, including the time waiting for it. Only measured if
+     *         there is a {@link Listener}.
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * @return Returns the time spent waiting for the bytes of the response body so far. Only measured if there is a
+     *         {@link Listener}.
+     */
+    public long getNetworkNanos() {
+        return content.getNanos();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            long start = listener != null ? System.nanoTime() : 0;
+            try {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    next = binder.bind(parser);
+                    rowCount++;
+                } else {
+                    // end of the rows, read the remaining properties
+                    readProperties();
+                    finish();
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            } finally {
+                if (listener != null) {
+                    readNanos += System.nanoTime() - start;
+                }
+            }
+            if (finished) {
+                notifyListener();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public ViewResultRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ViewResultRow row = next;
+        next = null;
+        return row;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (!finished) {
+                finished = true;
+                response.abort();
+            }
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // the request is already completed resp. aborted
+            }
+            notifyListener();
+        }
+    }
+
+    /**
+     * Reads the properties of the result until the start of the rows or until the end of the result.
+     *
+     * @return Returns true if the parser is positioned at the start of the rows.
+     */
+    private boolean readProperties() throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("rows".equals(name) && token == JsonToken.START_ARRAY) {
+                return true;
+            } else if ("total_rows".equals(name)) {
+                totalRows = parser.getValueAsLong();
+            } else if ("offset".equals(name)) {
+                offset = parser.getValueAsInt();
+            } else if ("update_seq".equals(name)) {
+                updateSeq = toUpdateSeq(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The update sequence is a number (CouchDB 1.x) or a string starting with a number (CouchDB 2.x).
+     */
+    private long toUpdateSeq(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        String text = parser.getValueAsString("");
+        int end = 0;
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? 0 : Long.parseLong(text.substring(0, end));
+    }
+
+    private void finish() {
+        finished = true;
+        response.releaseConnection();
+    }
+
+    private void notifyListener() {
+        if (listener != null && !notified) {
+            notified = true;
+            listener.onClose(this);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package it.vinicioflamini.sharedlib.couchdb.ektorp;
+
+import java.io.IOException;
+
+import org.ektorp.ViewResultException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.POJONode;
+
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
+
+/**
+ * This internal class binds a row of a view result directly from the tokens of the parser, i.e. no intermediate
+ * {@link JsonNode} is built for key, value and document. A field without a reader is skipped.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ViewRowBinder implements ViewResultReader.RowBinder {
+
+    private final ObjectReader keyReader;
+
+    private final ObjectReader valueReader;
+
+    private final ObjectReader docReader;
+
+    /**
+     * @param keyReader null or the reader of the key
+     * @param valueReader null or the reader of the value
+     * @param docReader null or the reader of the document
+     */
+    public ViewRowBinder(ObjectReader keyReader, ObjectReader valueReader, ObjectReader docReader) {
+        super();
+        this.keyReader = keyReader;
+        this.valueReader = valueReader;
+        this.docReader = docReader;
+    }
+
+    @Override
+    public ViewResultRow bind(JsonParser parser) throws IOException {
+        ViewResultRow row = new ViewResultRow();
+        JsonNode errorKey = null;
+        String error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+            case "id":
+                row.setId(parser.getValueAsString());
+                break;
+            case "key":
+                if (keyReader == null) {
+                    // the key is needed only if the row is an error, which has no ID
+                    if (row.getId() == null) {
+                        errorKey = parser.readValueAsTree();
+                    } else {
+                        parser.skipChildren();
+                    }
+                } else {
+                    row.setKey(read(keyReader, parser));
+                }
+                break;
+            case "value":
+                row.setValue(read(valueReader, parser));
+                break;
+            case "doc":
+                row.setDoc(read(docReader, parser));
+                break;
+            case "error":
+                error = parser.getValueAsString();
+                break;
+            default:
+                parser.skipChildren();
+            }
+        }
+        if (error != null) {
+            throw new ViewResultException(errorKey != null ? errorKey : new POJONode(row.getKey()), error);
+        }
+        return row;
+    }
+
+    private Object read(ObjectReader reader, JsonParser parser) throws IOException {
+        if (reader == null) {
+            parser.skipChildren();
+            return null;
+        } else if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return reader.readValue(parser);
+    }
+
+}
@@ -1,8 +1,12 @@
 package it.vinicioflamini.sharedlib.couchdb.internal;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 
+import it.vinicioflamini.sharedlib.couchdb.api.ReturnType;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
 
@@ -30,6 +34,64 @@ public class AdapterUtils {
         return list;
     }
 
+    /**
+     * Splits the elements of an {@link Iterator} into lists of the given size. The lists are created lazily, i.e. the
+     * given iterator is consumed batch by batch.
+     * 
+     * @param iter the iterator that contains the elements
+     * @param batchSize the maximum size of a list
+     * @param <E> the type of the elements
+     * @return Returns an iterator over the lists. The last list may be smaller than the batch size.
+     */
+    public static <E> Iterator<List<E>> partition(Iterator<E> iter, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        return new Iterator<List<E>>() {
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public List<E> next() {
+                if (!iter.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<E> batch = new ArrayList<>();
+                while (batch.size() < batchSize && iter.hasNext()) {
+                    batch.add(iter.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Maps the elements of an {@link Iterator} lazily, i.e. an element is mapped when it is consumed.
+     * 
+     * @param iter the iterator that contains the elements
+     * @param mapper maps an element
+     * @param <E> the type of the elements
+     * @param <R> the type of the mapped elements
+     * @return Returns an iterator over the mapped elements.
+     */
+    public static <E, R> Iterator<R> map(Iterator<E> iter, Function<? super E, ? extends R> mapper) {
+        return new Iterator<R>() {
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public R next() {
+                return mapper.apply(iter.next());
+            }
+        };
+    }
+
     /**
      * Transforms the view result to a list of keys or values or documents or IDs depending on the given return type. If
      * the return type is null, the view result is not transformed.
@@ -40,31 +102,28 @@ public class AdapterUtils {
      * @param <E> the type of the elements
      * @return Returns the transformed view result.
      */
-    @SuppressWarnings("unchecked")
     public static <E> E transformViewResult(ViewResult viewResult, String returnType) {
+        return transformViewResult(viewResult, ReturnType.of(returnType));
+    }
 
-        if (returnType == null) {
+    /**
+     * Transforms the view result to a list of keys or values or documents or IDs depending on the given return type.
+     * 
+     * @param viewResult the original view result
+     * @param returnType the return type
+     * @param <E> the type of the elements
+     * @return Returns the transformed view result, the view result itself for {@link ReturnType#RESULT}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> E transformViewResult(ViewResult viewResult, ReturnType returnType) {
+        if (returnType == ReturnType.RESULT) {
             return (E) viewResult;
-        } else {
-            List<Object> list = new ArrayList<>();
-            for (ViewResultRow row : viewResult.getRows()) {
-
-                Object obj;
-                if (returnType.equals("key")) {
-                    obj = row.getKey();
-                } else if (returnType.equals("value")) {
-                    obj = row.getValue();
-                } else if (returnType.equals("doc")) {
-                    obj = row.getDoc();
-                } else if (returnType.equals("id")) {
-                    obj = row.getId();
-                } else {
-                    throw new IllegalArgumentException("not supported return type: " + returnType);
-                }
-                list.add(obj);
-            }
-            return (E) list;
         }
+        List<Object> list = new ArrayList<>(viewResult.getRows().size());
+        for (ViewResultRow row : viewResult.getRows()) {
+            list.add(returnType.project(row));
+        }
+        return (E) list;
     }
 
 }
@@ -0,0 +1,103 @@
+package it.vinicioflamini.sharedlib.couchdb.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Processes batches with a bounded number of batches in flight.
+ * <p>
+ * The batches are taken from an {@link Iterator} only when a slot is free, i.e. a lazy iterator is never consumed
+ * faster than the batches are processed. Without an {@link Executor} or with a concurrency of 1 the batches are
+ * processed by the calling thread one after the other.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class BatchRunner {
+
+    private final Executor executor;
+
+    private final int concurrency;
+
+    /**
+     * @param executor null or the executor that processes the batches
+     * @param concurrency the maximum number of batches in flight
+     */
+    public BatchRunner(Executor executor, int concurrency) {
+        super();
+        this.executor = executor;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Processes the given batches.
+     * <p>
+     * If a batch fails, no further batches are started. The exception is thrown when the batches in flight are done.
+     *
+     * @param batches the batches
+     * @param task processes a single batch
+     * @param <B> the type of a batch
+     * @param <R> the type of the result of a batch
+     * @return Returns the results in the order of the batches.
+     */
+    public <B, R> List<R> run(Iterator<B> batches, Function<? super B, ? extends R> task) {
+
+        List<R> results = new ArrayList<>();
+
+        if (executor == null || concurrency <= 1) {
+            while (batches.hasNext()) {
+                results.add(task.apply(batches.next()));
+            }
+            return results;
+        }
+
+        Semaphore slots = new Semaphore(concurrency);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<CompletableFuture<? extends R>> futures = new ArrayList<>();
+        try {
+            while (batches.hasNext()) {
+                slots.acquire();
+                if (failed.get()) {
+                    break;
+                }
+                B batch = batches.next();
+                CompletableFuture<? extends R> future = CompletableFuture.supplyAsync(() -> task.apply(batch),
+                        executor);
+                future.whenComplete((result, e) -> {
+                    if (e != null) {
+                        failed.set(true);
+                    }
+                    slots.release();
+                });
+                futures.add(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a batch", e);
+        } finally {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).exceptionally(
+                    e -> null).join();
+        }
+
+        for (CompletableFuture<? extends R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+}
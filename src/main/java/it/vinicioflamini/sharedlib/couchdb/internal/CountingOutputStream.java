@@ -0,0 +1,28 @@
+package it.vinicioflamini.sharedlib.couchdb.internal;
+
+import java.io.OutputStream;
+
+/**
+ * Discards the written bytes and only counts them.
+ * 
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class CountingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+}
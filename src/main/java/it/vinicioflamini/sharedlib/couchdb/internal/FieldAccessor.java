@@ -0,0 +1,90 @@
+package it.vinicioflamini.sharedlib.couchdb.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Reads and writes a field with {@link MethodHandle}s, i.e. the field is looked up and made accessible only once.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class FieldAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final MethodHandle getter;
+
+    private final MethodHandle setter;
+
+    private FieldAccessor(MethodHandle getter, MethodHandle setter) {
+        super();
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @param type the class that declares the field or one of its subclasses
+     * @param name the name of the field
+     * @return Returns null if the class has no field with the given name.
+     */
+    public static FieldAccessor of(Class<?> type, String name) {
+        Field field = ReflectionUtils.findField(type, name);
+        if (field == null) {
+            return null;
+        }
+        ReflectionUtils.makeAccessible(field);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle getter;
+        try {
+            getter = lookup.unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+            }
+            getter = getter.asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        MethodHandle setter;
+        try {
+            setter = lookup.unreflectSetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                setter = MethodHandles.dropArguments(setter, 0, Object.class);
+            }
+            setter = setter.asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            setter = null; // a final field
+        }
+        return new FieldAccessor(getter, setter);
+    }
+
+    public Object get(Object target) {
+        try {
+            return (Object) getter.invokeExact(target);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void set(Object target, Object value) {
+        if (setter == null) {
+            throw new IllegalStateException("field is not writable");
+        }
+        try {
+            setter.invokeExact(target, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package it.vinicioflamini.sharedlib.couchdb.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * This {@link Publisher} emits the elements of a lazy {@link Iterator}, e.g. of a view that is read from the response
+ * or page by page. Each subscriber gets its own iterator, which is created on its first request.
+ * <p>
+ * An element is taken from the iterator only when it has been requested, i.e. a slow subscriber slows down the reading
+ * instead of letting the elements pile up in memory. The elements are read and emitted by the thread that calls
+ * {@link Subscription#request(long)}, without recursion if the subscriber requests more in
+ * {@link Subscriber#onNext(Object)}.
+ * <p>
+ * An iterator that is {@link Closeable} is closed when it is exhausted, when it fails or when the subscription is
+ * cancelled. A cancellation takes effect before the next element is read.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ *
+ * @param <E> the type of the elements
+ */
+public class IteratorPublisher<E> implements Publisher<E> {
+
+    private final Supplier<? extends Iterator<? extends E>> source;
+
+    /**
+     * @param source creates the iterator of a subscriber
+     */
+    public IteratorPublisher(Supplier<? extends Iterator<? extends E>> source) {
+        super();
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super E> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber must not be null");
+        subscriber.onSubscribe(new IteratorSubscription<E>(subscriber, source));
+    }
+
+    private static class IteratorSubscription<E> implements Subscription {
+
+        private final Subscriber<? super E> subscriber;
+
+        private final Supplier<? extends Iterator<? extends E>> source;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger work = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        private volatile long invalidRequest;
+
+        // only accessed by the thread that holds the work counter
+        private Iterator<? extends E> iterator;
+
+        private boolean done;
+
+        IteratorSubscription(Subscriber<? super E> subscriber, Supplier<? extends Iterator<? extends E>> source) {
+            this.subscriber = subscriber;
+            this.source = source;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = n;
+            } else {
+                // unbounded once the sum overflows
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Emits the requested elements unless another thread or an outer call on the same thread is already doing so.
+         * That one picks up the additional work.
+         */
+        private void drain() {
+            if (work.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                emit();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                terminate();
+                return;
+            }
+            if (invalidRequest != 0) {
+                terminate();
+                subscriber.onError(new IllegalArgumentException("The number of requested elements must be positive: "
+                        + invalidRequest));
+                return;
+            }
+
+            try {
+                while (demand.get() > 0 && !cancelled) {
+                    if (iterator == null) {
+                        iterator = source.get();
+                    }
+                    if (!iterator.hasNext()) {
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    E element = iterator.next();
+                    subscriber.onNext(element);
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                }
+            } catch (RuntimeException e) {
+                boolean wasCancelled = cancelled;
+                terminate();
+                if (!wasCancelled) {
+                    subscriber.onError(e);
+                }
+                return;
+            }
+            if (cancelled) {
+                terminate();
+            }
+        }
+
+        private void terminate() {
+            done = true;
+            if (iterator instanceof Closeable) {
+                try {
+                    ((Closeable) iterator).close();
+                } catch (IOException | RuntimeException e) {
+                    // nothing is read anymore
+                }
+            }
+            iterator = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package it.vinicioflamini.sharedlib.couchdb.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the underlying stream and, optionally, the time spent waiting for them.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+    private long count;
+
+    private long nanos;
+
+    private final boolean timed;
+
+    /**
+     * @param in the underlying stream
+     * @param timed true if the time spent reading shall be measured
+     */
+    public MeteredInputStream(InputStream in, boolean timed) {
+        super(in);
+        this.timed = timed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        try {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        } finally {
+            if (timed) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        try {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        } finally {
+            if (timed) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long start = timed ? System.nanoTime() : 0;
+        try {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        } finally {
+            if (timed) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Returns the time spent in the read methods of the underlying stream, 0 if it is not measured.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+}
@@ -0,0 +1,107 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.toList;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.springframework.util.Assert;
+
+import it.vinicioflamini.sharedlib.couchdb.api.AsyncCouchDbCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.api.CouchDbCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
+
+/**
+ * This {@link AsyncCouchDbCrudRepository} calls the blocking methods of a {@link CouchDbCrudRepository} on the threads
+ * of an {@link Executor}, preferably a {@link BoundedExecutor}, whose statistics show how long the requests wait for a
+ * thread.
+ * <p>
+ * The HTTP client of the repository should allow at least as many connections as the executor has threads. The
+ * executor should not be the one of the repository itself (see
+ * {@link it.vinicioflamini.sharedlib.couchdb.ektorp.EktorpCrudRepository#setExecutor(Executor)}), otherwise a bulk
+ * operation can wait for its own batches in a full queue.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ * @param <T> See type parameter in {@link CouchDbCrudRepository}
+ * @param <I> See type parameter in {@link CouchDbCrudRepository}
+ */
+public class AsyncCrudRepositoryAdapter<T, I extends Serializable> implements AsyncCouchDbCrudRepository<T, I> {
+
+    private final CouchDbCrudRepository<T, I> repository;
+
+    private final Executor executor;
+
+    public AsyncCrudRepositoryAdapter(CouchDbCrudRepository<T, I> repository, Executor executor) {
+        super();
+        Assert.notNull(repository, "The repository must not be null.");
+        Assert.notNull(executor, "The executor must not be null.");
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    public CouchDbCrudRepository<T, I> getRepository() {
+        return repository;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public <S extends T> CompletableFuture<S> save(S entity) {
+        return supply(() -> repository.save(entity));
+    }
+
+    @Override
+    public <S extends T> CompletableFuture<List<S>> saveAll(Iterable<S> entities) {
+        return supply(() -> toList(repository.saveAll(entities)));
+    }
+
+    @Override
+    public CompletableFuture<Optional<T>> findById(I id) {
+        return supply(() -> repository.findById(id));
+    }
+
+    @Override
+    public CompletableFuture<List<T>> findAllById(Iterable<I> ids) {
+        return supply(() -> toList(repository.findAllById(ids)));
+    }
+
+    @Override
+    public CompletableFuture<Long> count() {
+        return supply(repository::count);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(T entity) {
+        return supply(() -> {
+            repository.delete(entity);
+            return null;
+        });
+    }
+
+    @Override
+    public <R> CompletableFuture<R> find(ViewParams viewParams) {
+        return supply(() -> repository.<R> find(viewParams));
+    }
+
+    /*
+     * LOCAL METHODS
+     */
+
+    private <R> CompletableFuture<R> supply(Supplier<R> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+}
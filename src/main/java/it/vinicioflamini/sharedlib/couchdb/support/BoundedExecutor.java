@@ -0,0 +1,96 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.util.Assert;
+
+/**
+ * An {@link Executor} with a fixed maximum number of threads and a bounded queue. A task is rejected with a
+ * {@link RejectedExecutionException} if the queue is full, i.e. an overloaded database is not hidden behind an
+ * ever-growing queue.
+ * <p>
+ * The depth of the queue and the time the tasks have been waiting for a thread are recorded, see {@link #getStats()}.
+ * The threads are daemon threads and terminate when they have been idle for a minute.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class BoundedExecutor implements Executor, Closeable {
+
+    private final ThreadPoolExecutor pool;
+
+    private final int queueCapacity;
+
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder totalQueueNanos = new LongAdder();
+
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * @param name the prefix of the names of the threads
+     * @param threads the maximum number of threads, i.e. of concurrent requests
+     * @param queueCapacity the maximum number of tasks waiting for a thread
+     */
+    public BoundedExecutor(String name, int threads, int queueCapacity) {
+        super();
+        Assert.isTrue(threads > 0, "The number of threads must be positive.");
+        Assert.isTrue(queueCapacity > 0, "The capacity of the queue must be positive.");
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(
+                queueCapacity), r -> {
+                    Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long queuedAt = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                long queueNanos = System.nanoTime() - queuedAt;
+                totalQueueNanos.add(queueNanos);
+                maxQueueNanos.accumulateAndGet(queueNanos, Math::max);
+                try {
+                    task.run();
+                } finally {
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        peakQueueDepth.accumulateAndGet(pool.getQueue().size(), Math::max);
+    }
+
+    public ExecutorStats getStats() {
+        return new ExecutorStats(pool.getQueue().size(), peakQueueDepth.get(), queueCapacity, pool.getActiveCount(),
+                pool.getMaximumPoolSize(), completed.sum(), rejected.sum(), totalQueueNanos.sum(), maxQueueNanos
+                        .get());
+    }
+
+    /**
+     * Rejects new tasks. The queued tasks are still executed.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,101 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+/**
+ * This POJO is a snapshot of the statistics of a cache.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class CacheStats {
+
+    private final long hitCount;
+
+    private final long revalidationCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    private final long invalidationCount;
+
+    private final long size;
+
+    private final long weight;
+
+    public CacheStats(long hitCount, long revalidationCount, long missCount, long evictionCount,
+            long invalidationCount, long size, long weight) {
+        super();
+        this.hitCount = hitCount;
+        this.revalidationCount = revalidationCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * @return Returns the number of entries that have been used without asking the database.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Returns the number of entries that have been used after the database has confirmed that they are
+     *         up-to-date.
+     */
+    public long getRevalidationCount() {
+        return revalidationCount;
+    }
+
+    /**
+     * @return Returns the number of entries that have been loaded from the database.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return Returns the number of entries that have been removed to stay within the bounds of the cache.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return Returns the number of entries that have been removed because they were outdated.
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @return Returns the number of cached entries.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Returns the total weight of the cached entries, e.g. their size in bytes.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return Returns the fraction of requests answered from the cache, including revalidated entries.
+     */
+    public double getHitRate() {
+        long requests = hitCount + revalidationCount + missCount;
+        return requests == 0 ? 1.0 : (double) (hitCount + revalidationCount) / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats [hitCount=" + hitCount + ", revalidationCount=" + revalidationCount + ", missCount="
+                + missCount + ", evictionCount=" + evictionCount + ", invalidationCount=" + invalidationCount
+                + ", size=" + size + ", weight=" + weight + "]";
+    }
+
+}
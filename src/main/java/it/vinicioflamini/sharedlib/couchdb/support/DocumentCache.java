@@ -0,0 +1,247 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * A cache of documents in their JSON representation, bounded by the number of documents and by their total size in
+ * bytes. When a bound is exceeded, the least recently used documents are evicted.
+ * <p>
+ * A cached document is fresh for the time to live after it has been loaded or revalidated. Afterwards, it must be
+ * revalidated with its revision, e.g. with the header <i>If-None-Match</i>. A time to live of 0 means that each use is
+ * revalidated.
+ * <p>
+ * The documents are cached as JSON, i.e. each reader gets its own copy of an entity.
+ * <p>
+ * A document that has been loaded must not overwrite an invalidation that happened while it was loaded. Thus each
+ * invalidation increments a generation, and {@link #put(String, String, byte[], long)} takes the generation read
+ * before the document was requested. The generations of the last invalidated IDs are kept as tombstones, as many as
+ * documents are cached. Older invalidations are only known by the generation of the last forgotten tombstone, i.e.
+ * a document loaded before it is not cached.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class DocumentCache {
+
+    /**
+     * A cached document.
+     */
+    public static class CachedDocument {
+
+        private final String id;
+
+        private final String revision;
+
+        private final byte[] content;
+
+        private volatile long validatedAt;
+
+        CachedDocument(String id, String revision, byte[] content, long validatedAt) {
+            this.id = id;
+            this.revision = revision;
+            this.content = content;
+            this.validatedAt = validatedAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getRevision() {
+            return revision;
+        }
+
+        /**
+         * @return Returns the JSON representation of the document. It must not be changed.
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        public long getValidatedAt() {
+            return validatedAt;
+        }
+
+    }
+
+    private final int maxDocuments;
+
+    private final long maxBytes;
+
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<String, CachedDocument> documents = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long generation;
+
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+
+    private long tombstoneFloor;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxDocuments the maximum number of cached documents
+     * @param maxBytes the maximum total size of the cached documents in bytes
+     * @param timeToLiveMillis the time in milliseconds a document is used without revalidation
+     */
+    public DocumentCache(int maxDocuments, long maxBytes, long timeToLiveMillis) {
+        super();
+        Assert.isTrue(maxDocuments > 0, "The maximum number of documents must be positive.");
+        Assert.isTrue(maxBytes > 0, "The maximum size must be positive.");
+        Assert.isTrue(timeToLiveMillis >= 0, "The time to live must not be negative.");
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * @return Returns null or the cached document, which is not necessarily fresh.
+     */
+    public synchronized CachedDocument get(String id) {
+        return documents.get(id);
+    }
+
+    /**
+     * @return Returns true if the given document can be used without revalidation.
+     */
+    public boolean isFresh(CachedDocument document) {
+        return timeToLiveMillis > 0 && currentTimeMillis() - document.validatedAt < timeToLiveMillis;
+    }
+
+    /**
+     * @return Returns the current generation of the invalidations, to be read before a document is requested.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the given document, which is known to be current now, e.g. because it has just been written.
+     */
+    public synchronized void put(String id, String revision, byte[] content) {
+        put(id, revision, content, generation);
+    }
+
+    /**
+     * Caches the given document unless it has been invalidated after the given generation, i.e. while it was loaded.
+     * A document that exceeds the maximum size alone is not cached.
+     * 
+     * @param generation the generation read before the document was requested, see {@link #getGeneration()}
+     * @return Returns true if the document has been cached.
+     */
+    public synchronized boolean put(String id, String revision, byte[] content, long generation) {
+        if (isInvalidatedAfter(id, generation)) {
+            return false;
+        }
+        remove(id);
+        if (content.length > maxBytes) {
+            return false;
+        }
+        documents.put(id, new CachedDocument(id, revision, content, currentTimeMillis()));
+        bytes += content.length;
+
+        Iterator<CachedDocument> eldest = documents.values().iterator();
+        while (documents.size() > maxDocuments || bytes > maxBytes) {
+            bytes -= eldest.next().content.length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Marks the given document as fresh again, because its revision is still the current one.
+     */
+    public void revalidated(CachedDocument document) {
+        document.validatedAt = currentTimeMillis();
+    }
+
+    /**
+     * Removes the given document, e.g. because it has been changed or deleted.
+     */
+    public synchronized void invalidate(String id) {
+        generation++;
+        tombstones.remove(id);
+        tombstones.put(id, generation);
+        if (tombstones.size() > maxDocuments) {
+            Iterator<Long> eldest = tombstones.values().iterator();
+            tombstoneFloor = eldest.next();
+            eldest.remove();
+        }
+        if (remove(id)) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        tombstones.clear();
+        tombstoneFloor = generation;
+        invalidations.addAndGet(documents.size());
+        documents.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Counts a use of a fresh document.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Counts a use of a document that has been revalidated.
+     */
+    public void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    /**
+     * Counts a document that has been loaded because it was not cached or had been changed.
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits.get(), revalidations.get(), misses.get(), evictions.get(), invalidations.get(),
+                documents.size(), bytes);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isInvalidatedAfter(String id, long generation) {
+        if (tombstoneFloor > generation) {
+            return true;
+        }
+        Long invalidated = tombstones.get(id);
+        return invalidated != null && invalidated > generation;
+    }
+
+    private boolean remove(String id) {
+        CachedDocument removed = documents.remove(id);
+        if (removed != null) {
+            bytes -= removed.content.length;
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -2,18 +2,35 @@ package it.vinicioflamini.sharedlib.couchdb.support;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.Assert;
 import org.yaml.snakeyaml.Yaml;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import it.vinicioflamini.sharedlib.couchdb.api.CouchDbCrudRepository;
 
 /**
  * Loads a document into the database. Useful for the initialization of a
  * database.
+ * <p>
+ * Many documents, e.g. the design documents and the seed documents in a
+ * classpath directory, are loaded with two requests, see
+ * {@link #loadResources(String)}: one that reads the stored documents and one
+ * bulk request that writes the changed ones.
  * 
  * @author Vinicio Flamini (io@vinicioflamini.it)
  */
@@ -22,6 +39,9 @@ public class DocumentLoader {
 	@SuppressWarnings("rawtypes")
 	private CouchDbCrudRepository<Map, String> repository;
 
+	private final ObjectMapper canonicalMapper = new ObjectMapper()
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
 	/**
 	 * @param repository A repository for {@link Map maps}.
 	 */
@@ -51,21 +71,95 @@ public class DocumentLoader {
 		save(parseYaml(documentContent));
 	}
 
+	/**
+	 * Loads the JSON (*.json) and YAML (other extensions) documents matching the
+	 * given pattern, see {@link #saveAll(Collection)}.
+	 * 
+	 * @param locationPattern a pattern like
+	 *                        <code>classpath:couchdb/*.yaml</code>, see
+	 *                        {@link PathMatchingResourcePatternResolver}
+	 * @return Returns the number of documents that have been written.
+	 */
+	public int loadResources(String locationPattern) {
+		List<Map<String, Object>> documents = new ArrayList<>();
+		try {
+			for (Resource resource : new PathMatchingResourcePatternResolver().getResources(locationPattern)) {
+				try (InputStream in = resource.getInputStream()) {
+					String filename = resource.getFilename();
+					boolean json = filename != null && filename.toLowerCase().endsWith(".json");
+					documents.add(json ? parseJson(in) : parseYaml(in));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return saveAll(documents);
+	}
+
+	/**
+	 * Saves the given documents unless they are stored already with the same
+	 * content. The stored documents are read with a single request, the changed
+	 * documents are written with a single bulk request (each up to the batch
+	 * sizes of the repository). Overrides the existing documents.
+	 * 
+	 * @param documents the documents, each with an ID
+	 * @return Returns the number of documents that have been written.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public int saveAll(Collection<Map<String, Object>> documents) {
+
+		Map<String, Map<String, Object>> documentsById = new LinkedHashMap<>();
+		for (Map<String, Object> document : documents) {
+			Assert.notNull(document.get("_id"), "Each document must have an ID.");
+			documentsById.put((String) document.get("_id"), document);
+		}
+
+		Map<String, Map> storedDocuments = repository.findAllDocumentsById(documentsById.keySet());
+
+		List<Map> changedDocuments = new ArrayList<>();
+		for (Map<String, Object> document : documentsById.values()) {
+			Map<String, Object> storedDocument = storedDocuments.get(document.get("_id"));
+			if (storedDocument == null) {
+				document.remove("_rev");
+				changedDocuments.add(document);
+			} else if (!Arrays.equals(contentHash(document), contentHash(storedDocument))) {
+				document.put("_rev", storedDocument.get("_rev"));
+				changedDocuments.add(document);
+			}
+		}
+
+		if (!changedDocuments.isEmpty()) {
+			repository.saveAll(changedDocuments);
+		}
+		return changedDocuments.size();
+	}
+
 	public void save(Map<String, Object> document) {
 
 		String documentId = (String) document.get("_id");
 
-		if (repository.existsById(documentId)) {
-			@SuppressWarnings("rawtypes")
-			Optional<Map> documentInDbHolder = repository.findById(documentId);
-			if (documentInDbHolder.isPresent()) {
-				document.put("_rev", documentInDbHolder.get().get("_rev"));
-			}
+		String revision = repository.findRevisionsById(Collections.singleton(documentId)).get(documentId);
+		if (revision != null) {
+			document.put("_rev", revision);
 		}
 
 		repository.save(document);
 	}
 
+	/**
+	 * Hashes the content of the given document without its revision. The keys
+	 * of the objects are sorted, i.e. their order does not matter.
+	 */
+	protected byte[] contentHash(Map<String, Object> document) {
+		Map<String, Object> content = new LinkedHashMap<>(document);
+		content.remove("_rev");
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(canonicalMapper.writeValueAsBytes(content));
+		} catch (JsonProcessingException | NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	public Map<String, Object> parseJson(InputStream documentContent) {
 		try {
@@ -0,0 +1,110 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+/**
+ * This POJO is a snapshot of the statistics of a {@link BoundedExecutor}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ExecutorStats {
+
+    private final int queueDepth;
+
+    private final int peakQueueDepth;
+
+    private final int queueCapacity;
+
+    private final int activeCount;
+
+    private final int threads;
+
+    private final long completedCount;
+
+    private final long rejectedCount;
+
+    private final long totalQueueNanos;
+
+    private final long maxQueueNanos;
+
+    public ExecutorStats(int queueDepth, int peakQueueDepth, int queueCapacity, int activeCount, int threads,
+            long completedCount, long rejectedCount, long totalQueueNanos, long maxQueueNanos) {
+        super();
+        this.queueDepth = queueDepth;
+        this.peakQueueDepth = peakQueueDepth;
+        this.queueCapacity = queueCapacity;
+        this.activeCount = activeCount;
+        this.threads = threads;
+        this.completedCount = completedCount;
+        this.rejectedCount = rejectedCount;
+        this.totalQueueNanos = totalQueueNanos;
+        this.maxQueueNanos = maxQueueNanos;
+    }
+
+    /**
+     * @return Returns the number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return Returns the maximum number of tasks that have been waiting for a thread at the same time.
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return Returns the number of tasks being executed.
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * @return Returns the maximum number of threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return Returns the number of tasks that have been executed, successfully or not.
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * @return Returns the number of tasks that have been rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return Returns the average time in milliseconds a task has been waiting for a thread.
+     */
+    public double getAverageQueueMillis() {
+        return completedCount == 0 ? 0 : totalQueueNanos / 1e6 / completedCount;
+    }
+
+    /**
+     * @return Returns the maximum time in milliseconds a task has been waiting for a thread.
+     */
+    public double getMaxQueueMillis() {
+        return maxQueueNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorStats [queueDepth=" + queueDepth + ", peakQueueDepth=" + peakQueueDepth + ", queueCapacity="
+                + queueCapacity + ", activeCount=" + activeCount + ", threads=" + threads + ", completedCount="
+                + completedCount + ", rejectedCount=" + rejectedCount + ", averageQueueMillis="
+                + getAverageQueueMillis() + ", maxQueueMillis=" + getMaxQueueMillis() + "]";
+    }
+
+}
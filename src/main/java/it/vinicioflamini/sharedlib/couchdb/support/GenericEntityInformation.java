@@ -1,20 +1,24 @@
 package it.vinicioflamini.sharedlib.couchdb.support;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.data.domain.Persistable;
-import org.springframework.util.ReflectionUtils;
 
 import it.vinicioflamini.sharedlib.couchdb.api.EntityInformation;
+import it.vinicioflamini.sharedlib.couchdb.internal.FieldAccessor;
 
 /**
  * This {@link EntityInformation} is only for entities with ID of type <i>String</i>.
  * <p>
- * It looks up the ID and the revision in the properties "_id", "id" resp. "_rev", "rev", "revision".
+ * It looks up the ID and the revision in the properties "_id", "id" resp. "_rev", "rev", "revision". Map entities
+ * are read and written directly, the fields of other entities with accessors that are created once per property.
  * 
  * @author Vinicio Flamini (io@vinicioflamini.it)
  */
@@ -24,6 +28,8 @@ public class GenericEntityInformation<T, I extends Serializable> implements Enti
 
     protected Class<I> idType;
 
+    private final ConcurrentMap<String, Optional<FieldAccessor>> accessors = new ConcurrentHashMap<>();
+
     public GenericEntityInformation(Class<T> type, Class<I> idType) {
         super();
         this.type = type;
@@ -96,59 +102,68 @@ public class GenericEntityInformation<T, I extends Serializable> implements Enti
     @SuppressWarnings("rawtypes")
     protected Object getPropertyValue(T entity, boolean exceptionOnMissingProperty, String... properties) {
 
-        for (String property : properties) {
-        	
-            if (entity instanceof Map) {
-                Map map = (Map) entity;
+        if (entity instanceof Map) {
+            Map map = (Map) entity;
+            for (String property : properties) {
                 if (map.containsKey(property)) {
                     return map.get(property);
                 }
             }
-            Field field = ReflectionUtils.findField(type, property);
-            if (field != null) {
-                ReflectionUtils.makeAccessible(field);
-                return ReflectionUtils.getField(field, entity);
-            }
+        }
 
+        FieldAccessor accessor = findAccessor(properties);
+        if (accessor != null) {
+            return accessor.get(entity);
         }
 
         if (exceptionOnMissingProperty) {
-        	throw new RuntimeException("value for document properties " + properties + " not found");
-        }
-        else {
-        	return null;
+            throw new RuntimeException("value for document properties " + Arrays.toString(properties) + " not found");
+        } else {
+            return null;
         }
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
     protected void setPropertyValue(T entity, Object newValue, String defaultPropertyInMap, String... properties) {
 
-        for (String property : properties) {
-
-            if (entity instanceof Map) {
-                Map map = (Map) entity;
+        if (entity instanceof Map) {
+            Map map = (Map) entity;
+            for (String property : properties) {
                 if (map.containsKey(property)) {
                     map.put(property, newValue);
                     return;
                 }
             }
-            Field field = ReflectionUtils.findField(type, property);
-            if (field != null) {
-                ReflectionUtils.makeAccessible(field);
-                ReflectionUtils.setField(field, entity, newValue);
-                return;
-            }
-
-        }
-        
-        if (defaultPropertyInMap != null) {
-            Map map = (Map) entity;
-                map.put(defaultPropertyInMap, newValue);
         }
-        else{
-        	throw new RuntimeException("value for document properties " + properties + " not found");
+
+        FieldAccessor accessor = findAccessor(properties);
+        if (accessor != null) {
+            accessor.set(entity, newValue);
+        } else if (defaultPropertyInMap != null) {
+            ((Map) entity).put(defaultPropertyInMap, newValue);
+        } else {
+            throw new RuntimeException("value for document properties " + Arrays.toString(properties) + " not found");
         }
+    }
 
+    /**
+     * Returns the accessor of the first of the given properties that is a field of {@link #type}. The fields are
+     * looked up only once per property name.
+     * 
+     * @return Returns null if none of the properties is a field.
+     */
+    protected FieldAccessor findAccessor(String... properties) {
+        for (String property : properties) {
+            Optional<FieldAccessor> accessor = accessors.get(property);
+            if (accessor == null) {
+                accessor = Optional.ofNullable(FieldAccessor.of(type, property));
+                accessors.putIfAbsent(property, accessor);
+            }
+            if (accessor.isPresent()) {
+                return accessor.get();
+            }
+        }
+        return null;
     }
 
 }
@@ -0,0 +1,92 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.vinicioflamini.sharedlib.couchdb.api.RepositoryMetrics;
+
+/**
+ * This {@link RepositoryMetrics} registers the meters in a Micrometer {@link MeterRegistry}. Micrometer is an optional
+ * dependency, i.e. it must be added to the project that uses this class.
+ * <p>
+ * The meters are:
+ * <ul>
+ * <li><i>couchdb.repository.operations</i>: a timer with a latency histogram per entity, operation and outcome
+ * (<i>success</i> or <i>error</i>)</li>
+ * <li><i>couchdb.repository.errors</i>: a counter per entity, operation and exception</li>
+ * <li><i>couchdb.repository.view.rows</i>: a summary of the rows read per entity, design document and view</li>
+ * <li><i>couchdb.repository.view.bytes.sent</i> and <i>couchdb.repository.view.bytes.received</i>: summaries of the
+ * sizes of the request and response bodies of view queries</li>
+ * <li><i>couchdb.repository.view.network</i> and <i>couchdb.repository.view.deserialization</i>: timers of the time
+ * waiting for the responses of view queries and of the time reading them</li>
+ * <li><i>couchdb.repository.bulk</i>: a timer of the bulk requests per entity</li>
+ * <li><i>couchdb.repository.bulk.documents</i> and <i>couchdb.repository.bulk.errors</i>: a summary of the batch sizes
+ * and a counter of the documents that could not be written</li>
+ * <li><i>couchdb.repository.bulk.bytes.sent</i>: a summary of the sizes of the serialized documents per batch</li>
+ * </ul>
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class MicrometerRepositoryMetrics implements RepositoryMetrics {
+
+    public static final String PREFIX = "couchdb.repository";
+
+    private final MeterRegistry registry;
+
+    public MicrometerRepositoryMetrics(MeterRegistry registry) {
+        super();
+        Assert.notNull(registry, "The registry must not be null.");
+        this.registry = registry;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public void recordOperation(String entityType, String operation, long nanos, Throwable error) {
+        Timer.builder(PREFIX + ".operations").tags("entity", entityType, "operation", operation, "outcome",
+                error == null ? "success" : "error").publishPercentileHistogram().register(registry).record(nanos,
+                        TimeUnit.NANOSECONDS);
+        if (error != null) {
+            Counter.builder(PREFIX + ".errors").tags("entity", entityType, "operation", operation, "exception", error
+                    .getClass().getSimpleName()).register(registry).increment();
+        }
+    }
+
+    @Override
+    public void recordView(String entityType, String designDoc, String view, long rows, long bytesSent,
+            long bytesReceived, long networkNanos, long deserializationNanos) {
+        String[] tags = { "entity", entityType, "design", designDoc, "view", view };
+        DistributionSummary.builder(PREFIX + ".view.rows").tags(tags).register(registry).record(rows);
+        DistributionSummary.builder(PREFIX + ".view.bytes.sent").baseUnit("bytes").tags(tags).register(registry)
+                .record(bytesSent);
+        DistributionSummary.builder(PREFIX + ".view.bytes.received").baseUnit("bytes").tags(tags).register(registry)
+                .record(bytesReceived);
+        Timer.builder(PREFIX + ".view.network").tags(tags).register(registry).record(networkNanos,
+                TimeUnit.NANOSECONDS);
+        Timer.builder(PREFIX + ".view.deserialization").tags(tags).register(registry).record(deserializationNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordBulkBatch(String entityType, int documents, int errors, long bytesSent, long nanos) {
+        Timer.builder(PREFIX + ".bulk").tags("entity", entityType).publishPercentileHistogram().register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder(PREFIX + ".bulk.documents").tags("entity", entityType).register(registry).record(
+                documents);
+        if (bytesSent >= 0) {
+            DistributionSummary.builder(PREFIX + ".bulk.bytes.sent").baseUnit("bytes").tags("entity", entityType)
+                    .register(registry).record(bytesSent);
+        }
+        if (errors > 0) {
+            Counter.builder(PREFIX + ".bulk.errors").tags("entity", entityType).register(registry).increment(errors);
+        }
+    }
+
+}
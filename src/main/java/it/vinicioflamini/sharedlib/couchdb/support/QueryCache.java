@@ -0,0 +1,221 @@
+package it.vinicioflamini.sharedlib.couchdb.support;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * A cache of query results, which are valid as long as the database has not changed, i.e. as long as its update
+ * sequence has not moved. The cache is bounded by the number of results and by their estimated total size in bytes.
+ * When a bound is exceeded, the least recently used results are evicted.
+ * <p>
+ * A result expires when its time to live has passed since it has been queried, regardless of the update sequence.
+ * Expired results are removed when they are looked up.
+ * <p>
+ * The results are shared by all readers and must not be changed, i.e. mutable results should be cached in a serialized
+ * form.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class QueryCache {
+
+    /**
+     * A cached result.
+     */
+    public static class CachedResult {
+
+        private final Object value;
+
+        private final String updateSeq;
+
+        private final long weight;
+
+        private final long createdAt;
+
+        private volatile long validatedAt;
+
+        CachedResult(Object value, String updateSeq, long weight, long createdAt) {
+            this.value = value;
+            this.updateSeq = updateSeq;
+            this.weight = weight;
+            this.createdAt = createdAt;
+            this.validatedAt = createdAt;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <R> R getValue() {
+            return (R) value;
+        }
+
+        /**
+         * @return Returns null or the update sequence of the database when the result has been queried. It is null if
+         *         the result may have been stale.
+         */
+        public String getUpdateSeq() {
+            return updateSeq;
+        }
+
+        /**
+         * @return Returns the estimated size of the result in bytes.
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * @return Returns the last time the result was known to be up-to-date.
+         */
+        public long getValidatedAt() {
+            return validatedAt;
+        }
+
+    }
+
+    private final int maxResults;
+
+    private final long maxBytes;
+
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a cache that is only bounded by the number of results. The results do not expire.
+     * 
+     * @param maxResults the maximum number of cached results
+     */
+    public QueryCache(int maxResults) {
+        this(maxResults, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param maxResults the maximum number of cached results
+     * @param maxBytes the maximum estimated total size of the cached results in bytes
+     * @param timeToLiveMillis the time in milliseconds after which a result expires or 0 if the results do not expire
+     */
+    public QueryCache(int maxResults, long maxBytes, long timeToLiveMillis) {
+        super();
+        Assert.isTrue(maxResults > 0, "The maximum number of results must be positive.");
+        Assert.isTrue(maxBytes > 0, "The maximum size must be positive.");
+        Assert.isTrue(timeToLiveMillis >= 0, "The time to live must not be negative.");
+        this.maxResults = maxResults;
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * @return Returns null or the cached result, which is not necessarily up-to-date. An expired result is removed
+     *         and null is returned.
+     */
+    public synchronized CachedResult get(String key) {
+        CachedResult result = results.get(key);
+        if (result != null && timeToLiveMillis > 0 && currentTimeMillis() - result.createdAt >= timeToLiveMillis) {
+            remove(key);
+            evictions.incrementAndGet();
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns true if the given result has been validated within the given time.
+     */
+    public boolean isFresh(CachedResult result, long maxAgeMillis) {
+        return maxAgeMillis > 0 && currentTimeMillis() - result.validatedAt < maxAgeMillis;
+    }
+
+    /**
+     * Caches the given result. A result that exceeds the maximum size alone is not cached.
+     *
+     * @param updateSeq the update sequence of the database before the query has been sent or null if the result may be
+     *            stale, e.g. because it has been queried with <i>stale=ok</i>
+     * @param weight the estimated size of the result in bytes
+     */
+    public synchronized void put(String key, Object value, String updateSeq, long weight) {
+        remove(key);
+        if (weight > maxBytes) {
+            return;
+        }
+        results.put(key, new CachedResult(value, updateSeq, weight, currentTimeMillis()));
+        bytes += weight;
+
+        Iterator<CachedResult> eldest = results.values().iterator();
+        while (results.size() > maxResults || bytes > maxBytes) {
+            bytes -= eldest.next().weight;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Marks the given result as up-to-date again, because the update sequence of the database has not moved.
+     */
+    public void revalidated(CachedResult result) {
+        result.validatedAt = currentTimeMillis();
+    }
+
+    /**
+     * Removes all results, e.g. because the database has been changed.
+     */
+    public synchronized void invalidateAll() {
+        invalidations.addAndGet(results.size());
+        results.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Counts a use of a result without asking the database.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Counts a use of a result after the update sequence of the database has been checked.
+     */
+    public void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    /**
+     * Counts a query that has been sent because its result was not cached or outdated.
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits.get(), revalidations.get(), misses.get(), evictions.get(), invalidations.get(),
+                results.size(), bytes);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void remove(String key) {
+        CachedResult removed = results.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight;
+        }
+    }
+
+}
@@ -5,6 +5,7 @@ import static com.googlecode.catchexception.CatchException.caughtException;
 import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.toList;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -12,18 +13,24 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.IOUtils;
 import org.ektorp.Attachment;
@@ -31,15 +38,29 @@ import org.ektorp.AttachmentInputStream;
 import org.ektorp.CouchDbConnector;
 import org.joda.time.DateTime;
 import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
 
+import it.vinicioflamini.sharedlib.couchdb.api.AttachmentStream;
 import it.vinicioflamini.sharedlib.couchdb.api.CouchDbCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.api.DoubleAggregates;
+import it.vinicioflamini.sharedlib.couchdb.api.KeysetPageRequest;
+import it.vinicioflamini.sharedlib.couchdb.api.KeysetSlice;
+import it.vinicioflamini.sharedlib.couchdb.api.LongAggregates;
+import it.vinicioflamini.sharedlib.couchdb.api.StatsAggregates;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
 import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
 import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationException;
+import it.vinicioflamini.sharedlib.couchdb.api.exceptions.UnsupportedViewParameterException;
 import it.vinicioflamini.sharedlib.couchdb.model.BaseDocument;
 import it.vinicioflamini.sharedlib.couchdb.test.api.viewresult.ProductSummary;
 import it.vinicioflamini.sharedlib.couchdb.test.model.Product;
@@ -273,6 +294,48 @@ public abstract class AbstractCrudRepositoryTest extends AbstractJUnit4SpringCon
 
     }
 
+    @Test
+    public void testSaveAndFindStreamedAttachments() throws Exception {
+        productRepository.deleteAll();
+
+        // given
+        Product product = productRepository.save(newProduct("Tavolo 10", "Lumberjack Inc."));
+        Path pdf = Paths.get(getClass().getResource("../attachments/doc.pdf").toURI());
+        byte[] pdfBytes = Files.readAllBytes(pdf);
+        byte[] jpgBytes = Files.readAllBytes(Paths.get(getClass().getResource("../attachments/logo.jpg").toURI()));
+
+        // when (from a file and from a stream of unknown length)
+        String revision = productRepository.saveAttachment(product.getId(), product.getRevision(), "doc.pdf", pdf,
+                "application/pdf");
+        revision = productRepository.saveAttachment(product.getId(), revision, "logo.jpg", new ByteArrayInputStream(
+                jpgBytes), "image/jpeg", -1);
+
+        // then
+        Product foundProduct = productRepository.findById(product.getId()).get();
+        assertEquals(revision, foundProduct.getRevision());
+        assertEquals(2, foundProduct.getAttachments().size());
+        try (AttachmentStream in = productRepository.findAttachment(product.getId(), "doc.pdf").get()) {
+            assertEquals("application/pdf", in.getContentType());
+            assertArrayEquals(pdfBytes, IOUtils.toByteArray(in));
+        }
+
+        // when
+        Path target = Files.createTempFile("logo", ".jpg");
+        try {
+            assertTrue(productRepository.findAttachment(product.getId(), "logo.jpg", target));
+
+            // then
+            assertArrayEquals(jpgBytes, Files.readAllBytes(target));
+        } finally {
+            Files.delete(target);
+        }
+
+        // then
+        assertFalse(productRepository.findAttachment(product.getId(), "missing.txt").isPresent());
+        assertFalse(productRepository.findAttachment("missing", "doc.pdf", target));
+        assertFalse(Files.exists(target));
+    }
+
     @Test
     public void testCompleteResult() throws Exception {
         deleteProductRepoAndCreateSomeProducts();
@@ -296,6 +359,197 @@ public abstract class AbstractCrudRepositoryTest extends AbstractJUnit4SpringCon
         assertNotEquals(p1.getManufacturerId(), summary.getFacts().getManufacturerId());
     }
 
+    @Test
+    public void testStream() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        params.setKey("Lumberjack1 Inc.");
+
+        List<ViewResultRow> rows;
+        try (Stream<ViewResultRow> stream = productRepository.stream(params)) {
+            rows = stream.collect(Collectors.toList());
+        }
+        assertEquals(2, rows.size());
+        assertEquals(new HashSet<String>(Arrays.asList(p1.getId(), p2.getId())), new HashSet<String>(toDocIds(rows)));
+        ProductSummary summary = rows.get(0).getValue();
+        assertEquals(rows.get(0).getId(), summary.getFacts().getDocId());
+        assertEquals("Lumberjack1 Inc.", rows.get(0).getKey());
+    }
+
+    @Test
+    public void testStreamClosedEarly() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        // more streams than connections in the pool: an early close must not leak the connection
+        for (int i = 0; i < 30; i++) {
+            try (Stream<ViewResultRow> stream = productRepository.stream(params)) {
+                assertTrue(stream.findFirst().isPresent());
+            }
+        }
+        assertEquals(3, productRepository.count());
+    }
+
+    @Test
+    public void testExistsAllById() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+        productRepository.delete(p2);
+
+        List<String> ids = Arrays.asList(p3.getId(), "missing", p2.getId(), p1.getId());
+
+        assertEquals(Arrays.asList(p3.getId(), p1.getId()), new ArrayList<>(productRepository.existsAllById(ids)));
+        Map<String, String> revisions = productRepository.findRevisionsById(ids);
+        assertEquals(2, revisions.size());
+        assertEquals(productRepository.findById(p1.getId()).get().getRevision(), revisions.get(p1.getId()));
+        assertTrue(productRepository.existsAllById(new ArrayList<String>()).isEmpty());
+    }
+
+    @Test
+    public void testDeleteAllById() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        Set<String> missingIds = productRepository.deleteAllById(Arrays.asList(p1.getId(), "missing", p3.getId()));
+
+        assertEquals(singleton("missing"), missingIds);
+        assertEquals(1, productRepository.count());
+        assertTrue(productRepository.existsById(p2.getId()));
+        assertEquals(new HashSet<String>(Arrays.asList(p1.getId(), p3.getId())), productRepository.deleteAllById(
+                Arrays.asList(p1.getId(), p3.getId())));
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        List<String> keys;
+        try (Stream<ViewResultRow> stream = productRepository.parallelScan(params, Arrays.asList(
+                "Lumberjack1 Inc."))) {
+            assertTrue(stream.isParallel());
+            keys = stream.map(row -> (String) row.getKey()).collect(Collectors.toList());
+        }
+        assertEquals(Arrays.asList("Lumberjack Inc.", "Lumberjack1 Inc.", "Lumberjack1 Inc."), keys);
+
+        params.setKey("Lumberjack1 Inc.");
+        catchException(productRepository).parallelScan(params, 2);
+        assertTrue(caughtException() instanceof UnsupportedViewParameterException);
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        params.setKey("Lumberjack1 Inc.");
+        RecordingSubscriber<ViewResultRow> subscriber = new RecordingSubscriber<>();
+        productRepository.publish(params).subscribe(subscriber);
+
+        // nothing is read before it is requested
+        assertTrue(subscriber.elements.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.elements.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(5);
+        assertEquals(2, subscriber.elements.size());
+        assertTrue(subscriber.completed);
+        assertEquals(new HashSet<String>(Arrays.asList(p1.getId(), p2.getId())), new HashSet<String>(toDocIds(
+                subscriber.elements)));
+        ProductSummary summary = subscriber.elements.get(0).getValue();
+        assertEquals(subscriber.elements.get(0).getId(), summary.getFacts().getDocId());
+    }
+
+    @Test
+    public void testPublishCancelled() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        // more subscriptions than connections in the pool: a cancellation must not leak the connection
+        for (int i = 0; i < 30; i++) {
+            RecordingSubscriber<ViewResultRow> subscriber = new RecordingSubscriber<>();
+            productRepository.publish(params).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            subscriber.subscription.cancel();
+            subscriber.subscription.request(1);
+            assertEquals(1, subscriber.elements.size());
+            assertFalse(subscriber.completed);
+        }
+        assertEquals(3, productRepository.count());
+    }
+
+    @Test
+    public void testPublishAll() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        // requests more within onNext
+        RecordingSubscriber<Product> subscriber = new RecordingSubscriber<Product>() {
+            @Override
+            public void onNext(Product element) {
+                super.onNext(element);
+                subscription.request(1);
+            }
+        };
+        productRepository.publishAll().subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEqualsIdSet(Arrays.asList(p1.getId(), p2.getId(), p3.getId()), subscriber.elements);
+    }
+
+    @Test
+    public void testFindSlicesWithContinuationToken() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        KeysetSlice<ViewResultRow> first = productRepository.findSlice(params, KeysetPageRequest.of(2, null));
+        assertEquals(2, first.getContent().size());
+        assertEquals("Lumberjack Inc.", first.getContent().get(0).getKey());
+        assertTrue(first.hasNext());
+        assertNotNull(first.getContinuationToken());
+
+        KeysetSlice<ViewResultRow> second = productRepository.findSlice(params, first.nextPageable());
+        assertEquals(1, second.getContent().size());
+        assertEquals(1, second.getNumber());
+        assertFalse(second.hasNext());
+        assertNull(second.getContinuationToken());
+
+        List<String> docIds = new ArrayList<>(toDocIds(first.getContent()));
+        docIds.addAll(toDocIds(second.getContent()));
+        assertEquals(new HashSet<String>(Arrays.asList(p1.getId(), p2.getId(), p3.getId())), new HashSet<String>(
+                docIds));
+
+        // the token alone is enough to continue
+        KeysetSlice<ViewResultRow> again = productRepository.findSlice(params, KeysetPageRequest.of(2, first
+                .getContinuationToken()));
+        assertEquals(toDocIds(second.getContent()), toDocIds(again.getContent()));
+
+        catchException(productRepository).findSlice(params, KeysetPageRequest.of(2, "not a token"));
+        assertTrue(caughtException() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testFindAllPageable() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        List<String> ids = new ArrayList<>();
+        Pageable pageable = PageRequest.of(0, 2, Sort.by(Direction.DESC, "id"));
+        Page<Product> page;
+        do {
+            page = productRepository.findAll(pageable);
+            assertEquals(3, page.getTotalElements());
+            for (Product product : page) {
+                ids.add(product.getId());
+            }
+            pageable = page.nextPageable();
+        } while (page.hasNext());
+
+        List<String> expectedIds = new ArrayList<>(Arrays.asList(p1.getId(), p2.getId(), p3.getId()));
+        expectedIds.sort(Collections.reverseOrder());
+        assertEquals(expectedIds, ids);
+        assertEquals(expectedIds, toList(productRepository.findAll(Sort.by(Direction.DESC, "id"))).stream().map(
+                Product::getId).collect(Collectors.toList()));
+
+        catchException(productRepository).findAll(Sort.by("name"));
+        assertTrue(caughtException() instanceof UnsupportedViewParameterException);
+    }
+
     @Test
     public void testSetKey() throws Exception {
         deleteProductRepoAndCreateSomeProducts();
@@ -304,6 +558,7 @@ public abstract class AbstractCrudRepositoryTest extends AbstractJUnit4SpringCon
 
         ViewResult summaries = productRepository.find(params);
         assertEquals(2, summaries.getRows().size());
+        assertEquals(1, summaries.getOffset());
 
         List<String> docIds = toDocIds(summaries.getRows());
         List<String> expectedDocsIds = Arrays.asList(p1.getId(), p2.getId());
@@ -311,6 +566,19 @@ public abstract class AbstractCrudRepositoryTest extends AbstractJUnit4SpringCon
     }
 
 
+    @Test
+    public void testSetKeys() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+
+        params.setKeys(Arrays.asList("Lumberjack1 Inc.", "missing", "Lumberjack Inc."));
+
+        ViewResult summaries = productRepository.find(params);
+        assertEquals(3, summaries.getRows().size());
+        assertEquals(new HashSet<String>(Arrays.asList(p1.getId(), p2.getId())), new HashSet<String>(toDocIds(
+                summaries.getRows().subList(0, 2))));
+        assertEquals(p3.getId(), summaries.getRows().get(2).getId());
+    }
+
     @Test
     public void testSetReduce() throws Exception {
         deleteProductRepoAndCreateSomeProducts();
@@ -325,6 +593,59 @@ public abstract class AbstractCrudRepositoryTest extends AbstractJUnit4SpringCon
 
     }
 
+    @Test
+    public void testAggregates() throws Exception {
+        deleteProductRepoAndCreateSomeProducts();
+        Product p4 = newProduct("Tavolo 4", "Lumberjack1 Inc.");
+        p4.setIsoProductCode(2000000000);
+        p4.setWeight(10);
+        Product p5 = newProduct("Tavolo 5", "Lumberjack1 Inc.");
+        p5.setIsoProductCode(2000000000);
+        p5.setWeight(20);
+        productRepository.saveAll(asList(p4, p5));
+
+        // _count grouped by key
+        params.setReduce(true);
+        params.setGroup(true);
+        LongAggregates counts = productRepository.aggregateLongs(params);
+        assertEquals(asList("Lumberjack Inc.", "Lumberjack1 Inc."), counts.getKeys());
+        assertArrayEquals(new long[] { 1, 4 }, counts.getValues());
+
+        // _sum above Integer.MAX_VALUE grouped by the first element of the key
+        ViewParams sumParams = new ViewParams();
+        sumParams.setView("code_by_manufacturerId_and_code");
+        sumParams.setGroupLevel(1);
+        LongAggregates sums = productRepository.aggregateLongs(sumParams);
+        assertEquals(asList(asList("Lumberjack Inc."), asList("Lumberjack1 Inc.")), sums.getKeys());
+        assertArrayEquals(new long[] { 123, 4000000246L }, sums.getValues());
+        assertEquals(4000000369L, sums.getTotal());
+
+        sumParams.setGroupLevel(null);
+        DoubleAggregates total = productRepository.aggregateDoubles(sumParams);
+        assertEquals(1, total.size());
+        assertNull(total.getKey(0));
+        assertEquals(4000000369.0, total.getValue(0), 0);
+
+        // _stats, streamed
+        ViewParams statsParams = new ViewParams();
+        statsParams.setView("weight_by_manufacturerId_and_code");
+        statsParams.setGroupLevel(2);
+        List<Object> keys = new ArrayList<>();
+        productRepository.aggregateStats(statsParams, (key, count, sum, min, max, sumsqr) -> keys.add(key));
+        assertEquals(asList(asList("Lumberjack Inc.", 123), asList("Lumberjack1 Inc.", 123), asList(
+                "Lumberjack1 Inc.", 2000000000)), keys);
+
+        StatsAggregates stats = productRepository.aggregateStats(statsParams);
+        assertArrayEquals(new long[] { 1, 2, 2 }, stats.getCounts());
+        assertArrayEquals(new double[] { 34, 68, 30 }, stats.getSums(), 0);
+        assertEquals(10, stats.getMin(2), 0);
+        assertEquals(20, stats.getMax(2), 0);
+        assertEquals(15, stats.getMean(2), 0);
+
+        catchException(productRepository).aggregateLongs(statsParams);
+        assertTrue(caughtException() instanceof IllegalStateException);
+    }
+
     @Test
     public void testSetReturnValueToKey() throws Exception {
         deleteProductRepoAndCreateSomeProducts();
@@ -405,4 +726,36 @@ public abstract class AbstractCrudRepositoryTest extends AbstractJUnit4SpringCon
         return docIds;
     }
 
+    private static class RecordingSubscriber<E> implements Subscriber<E> {
+
+        Subscription subscription;
+
+        final List<E> elements = new ArrayList<>();
+
+        boolean completed;
+
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(E element) {
+            elements.add(element);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+    }
+
 }
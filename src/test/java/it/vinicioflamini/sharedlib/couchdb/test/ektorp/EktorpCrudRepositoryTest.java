@@ -1,10 +1,1171 @@
 package it.vinicioflamini.sharedlib.couchdb.test.ektorp;
 
+import static it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils.toList;
+import static com.googlecode.catchexception.CatchException.catchException;
+import static com.googlecode.catchexception.CatchException.caughtException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.ektorp.CouchDbConnector;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ContextConfiguration;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.vinicioflamini.sharedlib.couchdb.api.AsyncCouchDbCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.api.RepositoryMetrics;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewParams;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResult;
+import it.vinicioflamini.sharedlib.couchdb.api.ViewResultRow;
+import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationError;
+import it.vinicioflamini.sharedlib.couchdb.api.exceptions.BulkOperationException;
+import it.vinicioflamini.sharedlib.couchdb.ektorp.ChangesFollower;
+import it.vinicioflamini.sharedlib.couchdb.ektorp.EktorpCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.ektorp.QueryTrace;
+import it.vinicioflamini.sharedlib.couchdb.support.AsyncCrudRepositoryAdapter;
+import it.vinicioflamini.sharedlib.couchdb.support.BoundedExecutor;
+import it.vinicioflamini.sharedlib.couchdb.support.CacheStats;
+import it.vinicioflamini.sharedlib.couchdb.support.DocumentCache;
+import it.vinicioflamini.sharedlib.couchdb.support.DocumentLoader;
+import it.vinicioflamini.sharedlib.couchdb.support.MicrometerRepositoryMetrics;
+import it.vinicioflamini.sharedlib.couchdb.support.QueryCache;
 import it.vinicioflamini.sharedlib.couchdb.test.api.AbstractCrudRepositoryTest;
+import it.vinicioflamini.sharedlib.couchdb.test.model.Product;
+import it.vinicioflamini.sharedlib.couchdb.test.server.EmbeddedCouchDbServer;
 
+/**
+ * Tests {@link EktorpCrudRepository}, including its Ektorp-specific settings.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
 @ContextConfiguration(classes = { EktorpTestConfiguration.class })
 public class EktorpCrudRepositoryTest extends AbstractCrudRepositoryTest {
 
+    @Autowired
+    private EktorpCrudRepository<Product, String> repository;
+
+    @Autowired
+    private CouchDbConnector db;
+
+    /**
+     * null if the tests run against a real CouchDB server, see {@link EktorpTestConfiguration}
+     */
+    @Autowired(required = false)
+    private EmbeddedCouchDbServer server;
+
+    private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void restoreSettings() {
+        repository.setPageSize(EktorpCrudRepository.DEFAULT_PAGE_SIZE);
+        repository.setBulkBatchSize(EktorpCrudRepository.DEFAULT_BULK_BATCH_SIZE);
+        repository.setBulkMaxBytes(0);
+        repository.setBulkConcurrency(1);
+        repository.setKeysBatchSize(EktorpCrudRepository.DEFAULT_KEYS_BATCH_SIZE);
+        repository.setExecutor(null);
+        repository.setDocumentCache(null);
+        repository.setQueryCache(null);
+        repository.setCountMaxStaleMillis(0);
+        repository.setMetrics(RepositoryMetrics.NONE);
+        repository.setSlowQueryThresholdMillis(0);
+        repository.setSlowQuerySampleRate(1);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFindAllPageByPage() throws Exception {
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            products.add(newProduct("Sedia " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+        repository.setPageSize(2);
+
+        // when
+        List<Product> foundProducts = toList(repository.findAll());
+
+        // then
+        assertEquals(5, foundProducts.size());
+        Set<String> ids = new HashSet<>();
+        for (Product product : foundProducts) {
+            ids.add(product.getId());
+        }
+        assertEquals(5, ids.size());
+
+        // when (exactly one full page)
+        repository.delete(foundProducts.get(0));
+
+        // then
+        assertEquals(4, toList(repository.findAll()).size());
+    }
+
+    @Test
+    public void testFindAllPageableStartsAtContinuationToken() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            products.add(newProduct("Sedia " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+
+        // when
+        Page<Product> first = repository.findAll(PageRequest.of(0, 2));
+        server.clearRequestLog();
+        Page<Product> second = repository.findAll(first.nextPageable());
+        Page<Product> third = repository.findAll(second.nextPageable());
+
+        // then
+        assertEquals(2, second.getNumberOfElements());
+        assertEquals(1, third.getNumberOfElements());
+        assertFalse(third.hasNext());
+        Set<String> ids = new HashSet<>();
+        for (Page<Product> page : Arrays.asList(first, second, third)) {
+            page.forEach(product -> ids.add(product.getId()));
+        }
+        assertEquals(5, ids.size());
+        assertEquals(5, third.getTotalElements());
+        int pageRequests = 0;
+        for (String request : server.getQueryLog()) {
+            if (request.contains("/_view/by_id?") && request.contains("include_docs=true")) {
+                assertTrue(request, request.contains("startkey_docid="));
+                assertFalse(request, request.contains("skip="));
+                pageRequests++;
+            }
+        }
+        assertEquals(2, pageRequests);
+        // the total is carried in the tokens, i.e. it is counted only for the first page
+        assertEquals(2, server.getQueryLog().size());
+    }
+
+    @Test
+    public void testDeleteAllInConcurrentBatches() throws Exception {
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            products.add(newProduct("Armadio " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+        repository.setPageSize(3);
+        repository.setBulkBatchSize(2);
+        repository.setBulkConcurrency(3);
+        repository.setExecutor(executor);
+
+        // when
+        repository.deleteAll();
+
+        // then
+        assertEquals(0, repository.count());
+        assertEquals(0, toList(repository.findAll()).size());
+    }
+
+    @Test
+    public void testDeleteAllEntitiesInBatches() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            products.add(newProduct("Cassettiera " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+        repository.setBulkBatchSize(2);
+        server.clearRequestLog();
+
+        // when
+        repository.deleteAll(products);
+
+        // then
+        assertEquals(Collections.nCopies(3, "POST /ektorp-integration-tests/_bulk_docs"), server.getRequestLog());
+        assertEquals(0, repository.count());
+    }
+
+    @Test
+    public void testSaveAllInConcurrentBatches() throws Exception {
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            products.add(newProduct("Scaffale " + i, "Lumberjack Inc."));
+        }
+        repository.setBulkBatchSize(2);
+        repository.setBulkConcurrency(3);
+        repository.setExecutor(executor);
+
+        // when
+        repository.saveAll(products);
+
+        // then
+        assertEquals(7, repository.count());
+        for (Product product : products) {
+            assertNotNull(product.getRevision());
+        }
+    }
+
+    @Test
+    public void testSaveAllReportsErrorsOfAllBatches() throws Exception {
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            products.add(newProduct("Divano " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+        String oldRevision1 = products.get(1).getRevision();
+        String oldRevision4 = products.get(4).getRevision();
+        repository.saveAll(products);
+        products.get(1).setRevision(oldRevision1);
+        products.get(4).setRevision(oldRevision4);
+        repository.setBulkBatchSize(2);
+        repository.setBulkConcurrency(2);
+        repository.setExecutor(executor);
+
+        // when
+        catchException(repository).saveAll(products);
+
+        // then
+        BulkOperationException exception = caughtException();
+        assertEquals(2, exception.getErrors().size());
+        Map<String, Integer> batchById = new HashMap<>();
+        for (BulkOperationError error : exception.getErrors()) {
+            batchById.put(error.getId(), error.getBatch());
+        }
+        assertEquals(Integer.valueOf(0), batchById.get("Divano 1"));
+        assertEquals(Integer.valueOf(2), batchById.get("Divano 4"));
+    }
+
+    @Test
+    public void testSaveAllInBatchesLimitedBySize() throws Exception {
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            products.add(newProduct("Poltrona " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+        String oldRevision = products.get(2).getRevision();
+        repository.saveAll(products);
+        products.get(2).setRevision(oldRevision);
+        repository.setBulkMaxBytes(1); // every document exceeds the limit
+
+        // when
+        catchException(repository).saveAll(products);
+
+        // then
+        BulkOperationException exception = caughtException();
+        assertEquals(1, exception.getErrors().size());
+        assertEquals(2, exception.getErrors().get(0).getBatch());
+    }
+
+    @Test
+    public void testFindByIdFromFreshCache() throws Exception {
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 1", "Lumberjack Inc."));
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 60000));
+
+        // when
+        Product loaded = repository.findById(product.getId()).get();
+        Product cached = repository.findById(product.getId()).get();
+
+        // then
+        assertEquals(product.getRevision(), cached.getRevision());
+        assertEquals(product.getText(), cached.getText());
+        assertNotSame(loaded, cached);
+        CacheStats stats = repository.getDocumentCache().getStats();
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getSize());
+    }
+
+    @Test
+    public void testExistsAllByIdInBatches() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(repository.save(newProduct("Sgabello " + i, "Lumberjack Inc.")).getId());
+        }
+        ids.add(2, "missing");
+        repository.setKeysBatchSize(2);
+        repository.setExecutor(executor);
+        repository.setBulkConcurrency(2);
+        server.clearRequestLog();
+
+        // when
+        Set<String> existingIds = repository.existsAllById(ids);
+
+        // then
+        ids.remove("missing");
+        assertEquals(ids, new ArrayList<>(existingIds));
+        assertEquals(3, server.getRequestLog().size());
+        for (String request : server.getRequestLog()) {
+            assertEquals("POST /ektorp-integration-tests/_all_docs", request);
+        }
+    }
+
+    @Test
+    public void testFindWithKeysInConcurrentBatches() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        List<String> manufacturerIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            repository.save(newProduct("Panca " + i, "Manufacturer " + i));
+            manufacturerIds.add(0, "Manufacturer " + i);
+        }
+        manufacturerIds.add(2, "missing");
+        repository.setKeysBatchSize(2);
+        repository.setExecutor(executor);
+        repository.setBulkConcurrency(3);
+        ViewParams params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setKeys(manufacturerIds);
+        params.setReduce(false);
+        params.setKeyType(String.class);
+        params.setReturnType("key");
+        server.clearRequestLog();
+
+        // when
+        List<String> keys = repository.find(params);
+
+        // then
+        List<String> expectedKeys = new ArrayList<>(manufacturerIds);
+        expectedKeys.remove("missing");
+        assertEquals(expectedKeys, keys);
+        assertEquals(3, server.getRequestLog().size());
+        for (String request : server.getRequestLog()) {
+            assertTrue(request, request.startsWith("POST "));
+        }
+
+        // when (skip and limit apply to the merged rows)
+        params.setSkip(1);
+        params.setLimit(3);
+        keys = repository.find(params);
+
+        // then
+        assertEquals(expectedKeys.subList(1, 4), keys);
+    }
+
+    @Test
+    public void testParallelScanWithSampledSplitKeys() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            products.add(newProduct("Mensola " + i, String.format("Manufacturer %02d", i / 2)));
+        }
+        repository.saveAll(products);
+        ViewParams params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setReduce(false);
+        params.setKeyType(String.class);
+        params.setReturnType("id");
+        List<String> expectedIds = repository.find(params);
+        server.clearRequestLog();
+
+        // when
+        List<String> ids;
+        try (Stream<ViewResultRow> stream = repository.parallelScan(params, 4)) {
+            ids = stream.map(ViewResultRow::getId).collect(Collectors.toList());
+        }
+
+        // then (1 request to locate the range, 3 to sample the split keys, 4 partitions)
+        assertEquals(expectedIds, ids);
+        assertEquals(8, server.getRequestLog().size());
+        int partitions = 0;
+        for (String request : server.getQueryLog()) {
+            if (!request.contains("limit=")) {
+                partitions++;
+            }
+        }
+        assertEquals(4, partitions);
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testDocumentLoaderSkipsUnchangedDocuments() throws Exception {
+        DocumentLoader loader = new DocumentLoader(new EktorpCrudRepository(Map.class, db));
+        String seed = "classpath:it/vinicioflamini/sharedlib/couchdb/test/seed/*";
+        loader.loadResources(seed);
+
+        // the stored documents have the same content
+        assertEquals(0, loader.loadResources(seed));
+        assertEquals(0, loader.loadResources("classpath:it/vinicioflamini/sharedlib/couchdb/test/Product.yaml"));
+
+        // when
+        Map<String, Object> changed = db.get(Map.class, "category-chairs");
+        changed.put("name", "Stools");
+        db.update(changed);
+
+        // then
+        assertEquals(1, loader.loadResources(seed));
+        assertEquals("Chairs", db.get(Map.class, "category-chairs").get("name"));
+    }
+
+    @Test
+    public void testDeleteByIdDeletesDocumentsOfAnyType() throws Exception {
+        repository.deleteAll();
+
+        // given (documents that are not in the views of the repository)
+        Map<String, Object> first = new HashMap<>();
+        first.put("_id", "Etichetta 1");
+        db.create(first);
+        Map<String, Object> second = new HashMap<>();
+        second.put("_id", "Etichetta 2");
+        db.create(second);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        repository.setMetrics(new MicrometerRepositoryMetrics(registry));
+
+        // when
+        repository.deleteById("Etichetta 1");
+        Set<String> missingIds = repository.deleteAllById(Arrays.asList("Etichetta 2", "Etichetta 3"));
+
+        // then
+        assertFalse(db.contains("Etichetta 1"));
+        assertFalse(db.contains("Etichetta 2"));
+        assertEquals(Collections.singleton("Etichetta 3"), missingIds);
+        assertEquals(1, registry.get("couchdb.repository.operations").tags("operation", "deleteAllById").timer()
+                .count());
+        assertNull(registry.find("couchdb.repository.operations").tags("operation", "findRevisionsById").timer());
+    }
+
+    @Test
+    public void testDeleteByIdAndDeleteAllByIdRequests() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(repository.save(newProduct("Sgabello-" + i, "Lumberjack Inc.")).getId());
+        }
+        server.clearRequestLog();
+
+        // when
+        repository.deleteById(ids.get(0));
+
+        // then (the revision is the ETag of a HEAD request, no view is queried)
+        assertEquals(Arrays.asList("HEAD /ektorp-integration-tests/Sgabello-0",
+                "DELETE /ektorp-integration-tests/Sgabello-0"), server.getRequestLog());
+
+        // given
+        repository.setKeysBatchSize(3);
+        repository.setBulkBatchSize(2);
+        server.clearRequestLog();
+
+        // when
+        Set<String> missingIds = repository.deleteAllById(ids);
+
+        // then (2 lookups, 2 bulk requests)
+        assertEquals(Collections.singleton(ids.get(0)), missingIds);
+        assertEquals(0, repository.count());
+        List<String> requests = server.getRequestLog().subList(0, 4);
+        assertEquals(Arrays.asList("POST /ektorp-integration-tests/_all_docs",
+                "POST /ektorp-integration-tests/_all_docs", "POST /ektorp-integration-tests/_bulk_docs",
+                "POST /ektorp-integration-tests/_bulk_docs"), requests);
+    }
+
+    @Test
+    public void testAsyncRepository() throws Exception {
+        repository.deleteAll();
+
+        try (BoundedExecutor asyncExecutor = new BoundedExecutor("async", 4, 100)) {
+            AsyncCouchDbCrudRepository<Product, String> async = new AsyncCrudRepositoryAdapter<>(repository,
+                    asyncExecutor);
+
+            // given
+            List<Product> products = async.saveAll(Arrays.asList(newProduct("Panca 1", "Lumberjack Inc."),
+                    newProduct("Panca 2", "Lumberjack Inc."))).get();
+
+            // when (independent lookups)
+            CompletableFuture<Optional<Product>> first = async.findById(products.get(0).getId());
+            CompletableFuture<Optional<Product>> second = async.findById(products.get(1).getId());
+            CompletableFuture<Long> count = async.count();
+            CompletableFuture.allOf(first, second, count).get(5, TimeUnit.SECONDS);
+
+            // then
+            assertEquals("Panca 1", first.get().get().getId());
+            assertEquals("Panca 2", second.get().get().getId());
+            assertEquals(2L, count.get().longValue());
+
+            // when
+            async.delete(first.get().get()).get();
+
+            // then
+            assertFalse(async.findById("Panca 1").get().isPresent());
+            assertEquals(1, async.findAllById(Arrays.asList("Panca 1", "Panca 2")).get().size());
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        repository.deleteAll();
+
+        // given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        repository.setMetrics(new MicrometerRepositoryMetrics(registry));
+        repository.setBulkBatchSize(2);
+        Product product = repository.save(newProduct("Sgabello 11", "Lumberjack Inc."));
+        Product stale = repository.findById(product.getId()).get();
+        repository.save(product);
+
+        // when
+        repository.saveAll(Arrays.asList(newProduct("Sgabello 12", "Lumberjack Inc."), newProduct("Sgabello 13",
+                "Lumberjack Inc."), newProduct("Sgabello 14", "Lumberjack Inc.")));
+        ViewParams params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setKeyType(String.class);
+        params.setValueType(Map.class);
+        params.setReduce(false);
+        repository.find(params);
+        catchException(repository).delete(stale);
+
+        // then
+        assertNotNull(caughtException());
+        assertEquals(2, registry.get("couchdb.repository.operations").tags("entity", "Product", "operation", "save",
+                "outcome", "success").timer().count());
+        assertEquals(1, registry.get("couchdb.repository.operations").tags("operation", "find").timer().count());
+        assertEquals(1, registry.get("couchdb.repository.errors").tags("operation", "delete").counter().count(), 0);
+
+        DistributionSummary rows = registry.get("couchdb.repository.view.rows").tags("view", "by_manufacturerId")
+                .summary();
+        assertEquals(1, rows.count());
+        assertEquals(4, rows.totalAmount(), 0);
+        assertTrue(registry.get("couchdb.repository.view.bytes.received").tags("view", "by_manufacturerId").summary()
+                .totalAmount() > 0);
+        assertEquals(1, registry.get("couchdb.repository.view.deserialization").tags("view", "by_manufacturerId")
+                .timer().count());
+
+        DistributionSummary batches = registry.get("couchdb.repository.bulk.documents").summary();
+        assertEquals(2, batches.count());
+        assertEquals(3, batches.totalAmount(), 0);
+        DistributionSummary bytesSent = registry.get("couchdb.repository.bulk.bytes.sent").summary();
+        assertEquals(2, bytesSent.count());
+        assertTrue(bytesSent.totalAmount() > 0);
+    }
+
+    @Test
+    public void testMetricsSerializeBulkDocumentsOnce() throws Exception {
+        repository.deleteAll();
+
+        // given
+        AtomicInteger serializations = new AtomicInteger();
+        EktorpCrudRepository<Product, String> measuredRepository = new EktorpCrudRepository<Product, String>(
+                Product.class, db) {
+
+            @Override
+            protected long serializedSize(Object document) {
+                serializations.incrementAndGet();
+                return super.serializedSize(document);
+            }
+
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        measuredRepository.setMetrics(new MicrometerRepositoryMetrics(registry));
+        measuredRepository.setBulkBatchSize(2);
+
+        // when
+        measuredRepository.saveAll(Arrays.asList(newProduct("Sgabello 24", "Lumberjack Inc."), newProduct(
+                "Sgabello 25", "Lumberjack Inc."), newProduct("Sgabello 26", "Lumberjack Inc.")));
+        measuredRepository.deleteAll();
+
+        // then
+        assertEquals(6, serializations.get());
+        DistributionSummary bytesSent = registry.get("couchdb.repository.bulk.bytes.sent").summary();
+        assertEquals(4, bytesSent.count());
+        assertTrue(bytesSent.totalAmount() > 0);
+    }
+
+    @Test
+    public void testSlowQueryLog() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 15", "Lumberjack Inc."));
+        repository.setSlowQueryThresholdMillis(20);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        Logger logger = (Logger) LoggerFactory.getLogger(QueryTrace.class);
+        logger.addAppender(appender);
+        server.setLatencyMillis(50);
+        try {
+            ViewParams params = new ViewParams();
+            params.setView("by_manufacturerId");
+            params.setStartKey(StringUtils.repeat("x", 100));
+            params.setReduce(false);
+
+            // when
+            repository.count();
+            repository.find(params);
+            repository.findAllById(Arrays.asList(product.getId()));
+            toList(repository.findAll());
+
+            // then
+            List<String> messages = new ArrayList<>();
+            for (ILoggingEvent event : appender.list) {
+                messages.add(event.getFormattedMessage());
+            }
+            assertEquals(messages.toString(), 4, messages.size());
+            assertTrue(messages.get(0), messages.get(0).startsWith("slow count "));
+            assertTrue(messages.get(0), messages.get(0).contains("1 rows"));
+            assertTrue(messages.get(0), messages.get(0).contains("first byte"));
+            assertTrue(messages.get(1), messages.get(1).contains("startkey=\"" + StringUtils.repeat("x", 63)
+                    + "..."));
+            assertFalse(messages.get(1), messages.get(1).contains(StringUtils.repeat("x", 64)));
+            assertTrue(messages.get(2), messages.get(2).contains("keys(1)=[" + product.getId() + "]"));
+            assertTrue(messages.get(3), messages.get(3).startsWith("slow findAll "));
+
+            // when (not sampled)
+            repository.setSlowQuerySampleRate(0);
+            repository.count();
+
+            // then
+            assertEquals(4, appender.list.size());
+        } finally {
+            server.setLatencyMillis(0);
+            logger.detachAppender(appender);
+        }
+    }
+
+    @Test
+    public void testCountIsCachedByUpdateSeq() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        repository.save(newProduct("Sgabello 5", "Lumberjack Inc."));
+        repository.setQueryCache(new QueryCache(10));
+        assertEquals(1, repository.count());
+        server.clearRequestLog();
+
+        // when
+        long count = repository.count();
+
+        // then (only the database info is requested)
+        assertEquals(1, count);
+        assertEquals(Arrays.asList("GET /ektorp-integration-tests/"), server.getRequestLog());
+        assertEquals(1, repository.getQueryCache().getStats().getRevalidationCount());
+
+        // when (created by another client)
+        db.create(newProduct("Sgabello 6", "Lumberjack Inc."));
+
+        // then
+        assertEquals(2, repository.count());
+        assertEquals(2, repository.getQueryCache().getStats().getMissCount());
+
+        // when (created by this repository)
+        repository.save(newProduct("Sgabello 7", "Lumberjack Inc."));
+
+        // then
+        assertEquals(3, repository.count());
+        assertEquals(3, repository.getQueryCache().getStats().getMissCount());
+    }
+
+    @Test
+    public void testSaveAllInvalidatesQueryCacheOnce() throws Exception {
+        repository.deleteAll();
+
+        // given
+        AtomicInteger invalidations = new AtomicInteger();
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 60000));
+        repository.setQueryCache(new QueryCache(10) {
+
+            @Override
+            public synchronized void invalidateAll() {
+                invalidations.incrementAndGet();
+                super.invalidateAll();
+            }
+
+        });
+
+        // when
+        repository.saveAll(Arrays.asList(newProduct("Sgabello 20", "Lumberjack Inc."), newProduct("Sgabello 21",
+                "Lumberjack Inc."), newProduct("Sgabello 22", "Lumberjack Inc.")));
+
+        // then
+        assertEquals(1, invalidations.get());
+    }
+
+    @Test
+    public void testCountMaxStale() throws Exception {
+        repository.deleteAll();
+
+        // given
+        repository.setQueryCache(new QueryCache(10));
+        repository.setCountMaxStaleMillis(3600000);
+        assertEquals(0, repository.count());
+
+        // when (created by another client)
+        db.create(newProduct("Sgabello 8", "Lumberjack Inc."));
+
+        // then
+        assertEquals(0, repository.count());
+        assertEquals(1, repository.getQueryCache().getStats().getHitCount());
+
+        // when
+        repository.setCountMaxStaleMillis(0);
+
+        // then
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    public void testReduceQueryIsCachedByUpdateSeq() throws Exception {
+        repository.deleteAll();
+
+        // given
+        repository.saveAll(Arrays.asList(newProduct("Sgabello 9", "Lumberjack Inc."), newProduct("Sgabello 10",
+                "Lumberjack Inc.")));
+        repository.setQueryCache(new QueryCache(10));
+        ViewParams params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setReduce(true);
+        params.setKeyType(String.class);
+        params.setValueType(Integer.class);
+
+        // when
+        it.vinicioflamini.sharedlib.couchdb.api.ViewResult first = repository.find(params);
+        it.vinicioflamini.sharedlib.couchdb.api.ViewResult second = repository.find(params);
+
+        // then
+        assertEquals(2, (int) second.getRows().get(0).getValue());
+        assertEquals((Object) first.getRows().get(0).getValue(), second.getRows().get(0).getValue());
+        CacheStats stats = repository.getQueryCache().getStats();
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getRevalidationCount());
+
+        // when (another query)
+        params.setGroup(true);
+        repository.find(params);
+
+        // then
+        assertEquals(2, repository.getQueryCache().getStats().getMissCount());
+    }
+
+    @Test
+    public void testFindIsCachedByCanonicalParams() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        repository.save(newProduct("Sgabello 16", "Lumberjack Inc."));
+        repository.setQueryCache(new QueryCache(10, 1024 * 1024, 60000));
+        List<?> first = repository.find(manufacturerParams("Lumberjack Inc.", null));
+        server.clearRequestLog();
+
+        // when (equal parameters, another instance)
+        List<?> second = repository.find(manufacturerParams("Lumberjack Inc.", null));
+
+        // then (only the database info is requested)
+        assertEquals(1, second.size());
+        assertEquals(first, second);
+        assertEquals(Arrays.asList("GET /ektorp-integration-tests/"), server.getRequestLog());
+
+        // when (created by another client, but stale results are accepted)
+        db.create(newProduct("Sgabello 17", "Lumberjack Inc."));
+        server.clearRequestLog();
+        List<?> stale = repository.find(manufacturerParams("Lumberjack Inc.", "ok"));
+
+        // then
+        assertEquals(1, stale.size());
+        assertEquals(Collections.emptyList(), server.getRequestLog());
+        assertTrue(repository.getQueryCache().getStats().getWeight() > 0);
+
+        // when
+        List<?> current = repository.find(manufacturerParams("Lumberjack Inc.", null));
+
+        // then
+        assertEquals(2, current.size());
+    }
+
+    @Test
+    public void testFindProjectionIsCachedByReturnType() throws Exception {
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 18", "Lumberjack Inc."));
+        repository.setQueryCache(new QueryCache(10, 1024 * 1024, 60000));
+        ViewParams params = manufacturerParams("Lumberjack Inc.", null);
+        params.setKeyType(String.class);
+        List<Object> values = repository.find(params);
+
+        // when
+        params.setReturnType("id");
+        List<Object> ids = repository.find(params);
+        params.setReturnType("key");
+        List<Object> keys = repository.find(params);
+
+        // then
+        assertEquals(1, values.size());
+        assertTrue(values.get(0) instanceof Map);
+        assertEquals(Arrays.asList(product.getId()), ids);
+        assertEquals(Arrays.asList("Lumberjack Inc."), keys);
+
+        // when (the returned list is changed)
+        keys.clear();
+
+        // then (the cached list is not, and each return type was read once)
+        assertEquals(Arrays.asList("Lumberjack Inc."), repository.find(params));
+        assertEquals(3, repository.getQueryCache().getStats().getMissCount());
+    }
+
+    @Test
+    public void testFindDoesNotShareCachedEntities() throws Exception {
+        repository.deleteAll();
+
+        // given
+        repository.save(newProduct("Sgabello 27", "Lumberjack Inc."));
+        repository.setQueryCache(new QueryCache(10, 1024 * 1024, 60000));
+        ViewParams params = manufacturerParams("Lumberjack Inc.", null);
+        params.setIncludeDocs(true);
+        params.setDocumentType(Product.class);
+        params.setReturnType("doc");
+        List<Product> products = repository.find(params);
+        params.setReturnType(null);
+        ViewResult viewResult = repository.find(params);
+
+        // when (the returned entities are changed, but not saved)
+        products.get(0).setText("changed");
+        ((Product) viewResult.getRows().get(0).getDoc()).setText("changed");
+
+        // then (the cached results bind new entities)
+        params.setReturnType("doc");
+        List<Product> cachedProducts = repository.find(params);
+        params.setReturnType(null);
+        ViewResult cachedViewResult = repository.find(params);
+        assertEquals("Vintage\nEconomico", cachedProducts.get(0).getText());
+        assertEquals("Vintage\nEconomico", ((Product) cachedViewResult.getRows().get(0).getDoc()).getText());
+        assertEquals(2, repository.getQueryCache().getStats().getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindUnsupportedReturnType() throws Exception {
+        ViewParams params = manufacturerParams("Lumberjack Inc.", null);
+        params.setReturnType("row");
+        repository.find(params);
+    }
+
+    private ViewParams manufacturerParams(String manufacturerId, String stale) {
+        ViewParams params = new ViewParams();
+        params.setView("by_manufacturerId");
+        params.setKey(manufacturerId);
+        params.setReduce(false);
+        params.setStale(stale);
+        params.setValueType(Map.class);
+        params.setReturnType("value");
+        return params;
+    }
+
+    @Test
+    public void testFollowChangesEvictsCache() throws Exception {
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 3", "Lumberjack Inc."));
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 3600000));
+        repository.findById(product.getId());
+
+        try (ChangesFollower follower = new ChangesFollower(db)) {
+            repository.followChanges(follower);
+            follower.start();
+
+            // when (changed by another client)
+            product.setText("changed");
+            db.update(product);
+
+            // then
+            await(() -> repository.getDocumentCache().getStats().getSize() == 0);
+            assertEquals("changed", repository.findById(product.getId()).get().getText());
+            assertEquals(db.getDbInfo().getUpdateSeqAsString(), follower.getLastSeq());
+        }
+    }
+
+    @Test
+    public void testFollowChangesResumesAfterDisconnect() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 4", "Lumberjack Inc."));
+        repository.setQueryCache(new QueryCache(10));
+        try (ChangesFollower follower = new ChangesFollower(db)) {
+            follower.setBackoffMillis(500, 500);
+            repository.followChanges(follower);
+            follower.start();
+            await(() -> server.getChangesFeedCount() == 1);
+            repository.find(manufacturerParams("Lumberjack Inc.", null));
+            assertEquals(1, repository.getQueryCache().getStats().getSize());
+
+            // when
+            server.disconnectChangesFeeds();
+
+            // then (the cached results may miss changes until the follower has reconnected)
+            await(() -> repository.getQueryCache().getStats().getSize() == 0);
+
+            // when
+            product.setText("changed while disconnected");
+            db.update(product);
+
+            // then
+            await(() -> follower.getConnectionCount() == 2 && follower.getChangeCount() == 1);
+            assertEquals(db.getDbInfo().getUpdateSeqAsString(), follower.getLastSeq());
+        }
+    }
+
+    @Test
+    public void testFollowChangesKeepsQueryCacheOnUnrelatedChange() throws Exception {
+        Assume.assumeTrue(System.getProperty("couchdb.url") == null);
+        repository.deleteAll();
+
+        // given
+        repository.save(newProduct("Sgabello 23", "Lumberjack Inc."));
+        repository.setQueryCache(new QueryCache(10));
+        try (ChangesFollower follower = new ChangesFollower(db)) {
+            follower.setBackoffMillis(500, 500);
+            repository.followChanges(follower);
+            follower.start();
+            await(() -> server.getChangesFeedCount() == 1);
+            assertEquals(1, repository.count());
+            server.disconnectChangesFeeds();
+            await(() -> repository.getQueryCache().getStats().getSize() == 0);
+
+            // when (a document that is not in the views of the repository, counted while the follower is away)
+            Map<String, Object> label = new HashMap<>();
+            label.put("_id", "Etichetta 4");
+            db.create(label);
+            assertEquals(1, repository.count());
+            await(() -> follower.getConnectionCount() == 2 && follower.getChangeCount() == 1);
+            server.clearRequestLog();
+
+            // then (the change of the other document is noticed, but the cached count matches its update sequence)
+            assertEquals(1, repository.count());
+            assertTrue(server.getRequestLog().isEmpty());
+            assertEquals(1, repository.getQueryCache().getStats().getRevalidationCount());
+        } finally {
+            db.delete("Etichetta 4", db.getCurrentRevision("Etichetta 4"));
+        }
+    }
+
+    @Test
+    public void testFindByIdRevalidatesCache() throws Exception {
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 2", "Lumberjack Inc."));
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 0)); // always revalidate
+        repository.findById(product.getId());
+
+        // when
+        Product revalidated = repository.findById(product.getId()).get();
+
+        // then
+        assertEquals(product.getRevision(), revalidated.getRevision());
+        assertEquals(1, repository.getDocumentCache().getStats().getRevalidationCount());
+
+        // when (changed by another client)
+        product.setText("changed");
+        db.update(product);
+
+        // then
+        assertEquals("changed", repository.findById(product.getId()).get().getText());
+        assertEquals(2, repository.getDocumentCache().getStats().getMissCount());
+
+        // when (deleted by another client)
+        db.delete(product);
+
+        // then
+        assertFalse(repository.findById(product.getId()).isPresent());
+        assertEquals(0, repository.getDocumentCache().getStats().getSize());
+    }
+
+    @Test
+    public void testSaveAndDeleteEvictCache() throws Exception {
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 3", "Lumberjack Inc."));
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 60000));
+        repository.findById(product.getId());
+
+        // when
+        product.setText("changed");
+        repository.save(product);
+
+        // then
+        assertEquals("changed", repository.findById(product.getId()).get().getText());
+
+        // when
+        repository.delete(product);
+
+        // then
+        assertFalse(repository.findById(product.getId()).isPresent());
+        assertEquals(2, repository.getDocumentCache().getStats().getInvalidationCount());
+    }
+
+    @Test
+    public void testSaveDuringSlowReadIsNotOverwrittenInCache() throws Exception {
+        repository.deleteAll();
+
+        // given
+        Product product = repository.save(newProduct("Sgabello 19", "Lumberjack Inc."));
+        String oldRevision = product.getRevision();
+        AtomicBoolean saved = new AtomicBoolean();
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 60000) {
+
+            @Override
+            public boolean put(String id, String revision, byte[] content, long generation) {
+                // saved by another thread after the read has received the old revision
+                if (saved.compareAndSet(false, true)) {
+                    product.setText("changed");
+                    CompletableFuture.runAsync(() -> repository.save(product)).join();
+                }
+                return super.put(id, revision, content, generation);
+            }
+        });
+
+        // when
+        Product read = repository.findById(product.getId()).get();
+
+        // then (the old revision is returned, but not cached)
+        assertEquals(oldRevision, read.getRevision());
+        assertEquals(0, repository.getDocumentCache().getStats().getSize());
+        assertEquals("changed", repository.findById(product.getId()).get().getText());
+        assertEquals(2, repository.getDocumentCache().getStats().getMissCount());
+    }
+
+    @Test
+    public void testFindAllByIdWithCache() throws Exception {
+        repository.deleteAll();
+
+        // given
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            products.add(newProduct("Panca " + i, "Lumberjack Inc."));
+        }
+        repository.saveAll(products);
+        repository.setDocumentCache(new DocumentCache(100, 1000000, 60000));
+        repository.findById("Panca 1");
+
+        // when
+        List<Product> found = toList(repository.findAllById(Arrays.asList("Panca 3", "Panca 1", "Panca 9",
+                "Panca 0")));
+
+        // then
+        assertEquals(Arrays.asList("Panca 3", "Panca 1", "Panca 0"), Arrays.asList(found.get(0).getId(), found.get(
+                1).getId(), found.get(2).getId()));
+        CacheStats stats = repository.getDocumentCache().getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(4, stats.getMissCount()); // Panca 1 by findById, Panca 0, 3 and 9
+        assertEquals(3, stats.getSize());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        DocumentCache cache = new DocumentCache(2, 10, 60000);
+
+        cache.put("a", "1-a", new byte[4]);
+        cache.put("b", "1-b", new byte[4]);
+        cache.get("a"); // b is the least recently used
+        cache.put("c", "1-c", new byte[4]);
+        cache.put("d", "1-d", new byte[11]); // too large
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNull(cache.get("d"));
+        assertEquals(1, cache.getStats().getEvictionCount());
+        assertEquals(8, cache.getStats().getWeight());
+    }
+
+    @Test
+    public void testCacheIgnoresDocumentsReadBeforeInvalidation() throws Exception {
+        DocumentCache cache = new DocumentCache(2, 100, 60000);
+
+        long generation = cache.getGeneration();
+        cache.invalidate("a");
+        assertFalse(cache.put("a", "1-a", new byte[4], generation));
+        assertTrue(cache.put("b", "1-b", new byte[4], generation));
+
+        // when (more IDs are invalidated than tombstones are kept)
+        generation = cache.getGeneration();
+        cache.invalidate("b");
+        cache.invalidate("c");
+        cache.invalidate("d");
+
+        // then (a document read before the forgotten tombstones is not cached)
+        assertFalse(cache.put("a", "2-a", new byte[4], generation));
+        assertTrue(cache.put("a", "2-a", new byte[4], cache.getGeneration()));
+
+        // when
+        generation = cache.getGeneration();
+        cache.invalidateAll();
+
+        // then
+        assertFalse(cache.put("e", "1-e", new byte[4], generation));
+        assertNull(cache.get("a"));
+    }
+
+    /**
+     * Waits up to 5 seconds for the given condition, e.g. for the thread of a {@link ChangesFollower}.
+     */
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
 }
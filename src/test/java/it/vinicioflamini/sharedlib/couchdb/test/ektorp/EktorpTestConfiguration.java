@@ -1,5 +1,8 @@
 package it.vinicioflamini.sharedlib.couchdb.test.ektorp;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -9,30 +12,93 @@ import org.ektorp.http.HttpClient;
 import org.ektorp.impl.StdCouchDbConnector;
 import org.ektorp.impl.StdCouchDbInstance;
 import org.ektorp.spring.HttpClientFactoryBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 
 import it.vinicioflamini.sharedlib.couchdb.ektorp.EktorpCrudRepository;
 import it.vinicioflamini.sharedlib.couchdb.support.DocumentLoader;
 import it.vinicioflamini.sharedlib.couchdb.test.model.Product;
+import it.vinicioflamini.sharedlib.couchdb.test.server.EmbeddedCouchDbServer;
 
 /**
  * This configuration uses the the database "/ektorp-integration-tests/", creates/updates/deletes the standard design
  * document including the views of the design document.
+ * <p>
+ * The database is served by an {@link EmbeddedCouchDbServer} unless the system property "couchdb.url" points to a real
+ * CouchDB server, e.g. <code>-Dcouchdb.url=http://10.10.10.136:5984</code>. The embedded server is not started at
+ * all in the latter case.
  * 
  * @author Vinicio Flamini (io@vinicioflamini.it)
  */
 @Configuration
 public class EktorpTestConfiguration {
-	private final String URI = "10.10.10.136";
-	private final String PORT = "5984";
 	private final String DBNAME = "ektorp-integration-tests";
 	private final String USERNAME = "admin";
 	private final String PASSWORD = "password";
 	
+    /**
+     * Matches if no real CouchDB server is configured.
+     */
+    static class EmbeddedServerCondition implements Condition {
+
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return System.getProperty("couchdb.url") == null;
+        }
+    }
+
+    @Bean(destroyMethod = "close")
+    @Conditional(EmbeddedServerCondition.class)
+    public EmbeddedCouchDbServer embeddedCouchDbServer() {
+        EmbeddedCouchDbServer server = EmbeddedCouchDbServer.start();
+        server.defineView("Product", "by_id", (doc, emitter) -> {
+            if (isProduct(doc)) {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("_id", doc.get("_id"));
+                value.put("_rev", doc.get("_rev"));
+                emitter.emit(doc.get("_id"), value);
+            }
+        }, "_count");
+        server.defineView("Product", "by_manufacturerId", (doc, emitter) -> {
+            if (isProduct(doc)) {
+                Map<String, Object> facts = new LinkedHashMap<>();
+                facts.put("lastModification", doc.get("lastModification"));
+                facts.put("text", doc.get("text"));
+                facts.put("isoProductCode", doc.get("isoProductCode"));
+                facts.put("rating", doc.get("rating"));
+                facts.put("hidden", doc.get("hidden"));
+                facts.put("weight", doc.get("weight"));
+                facts.put("price", doc.get("price"));
+                facts.put("tags", doc.get("tags"));
+                facts.put("manufacturerId", doc.get("manufacturerId"));
+                facts.put("revision", doc.get("_rev"));
+                facts.put("docId", doc.get("_id"));
+                emitter.emit(doc.get("manufacturerId"), Collections.singletonMap("facts", facts));
+            }
+        }, "_count");
+        server.defineView("Product", "code_by_manufacturerId_and_code", (doc, emitter) -> {
+            if (isProduct(doc)) {
+                emitter.emit(Arrays.asList(doc.get("manufacturerId"), doc.get("isoProductCode")), doc.get(
+                        "isoProductCode"));
+            }
+        }, "_sum");
+        server.defineView("Product", "weight_by_manufacturerId_and_code", (doc, emitter) -> {
+            if (isProduct(doc)) {
+                emitter.emit(Arrays.asList(doc.get("manufacturerId"), doc.get("isoProductCode")), doc.get("weight"));
+            }
+        }, "_stats");
+        return server;
+    }
+
     @Bean
-    public StdCouchDbConnector connector() throws Exception {
+    public StdCouchDbConnector connector(ObjectProvider<EmbeddedCouchDbServer> embeddedCouchDbServer)
+            throws Exception {
 
         Properties properties = new Properties();
         properties.setProperty("autoUpdateViewOnChange", "true");
@@ -40,7 +106,8 @@ public class EktorpTestConfiguration {
         properties.setProperty("password", this.PASSWORD);
 
         HttpClientFactoryBean factory = new HttpClientFactoryBean();
-        factory.setUrl(String.format("http://%s:%s", this.URI, this.PORT));
+        String url = System.getProperty("couchdb.url");
+        factory.setUrl(url != null ? url : embeddedCouchDbServer.getObject().getUrl());
         factory.setProperties(properties);
         factory.afterPropertiesSet();
         HttpClient client = factory.getObject();
@@ -70,4 +137,13 @@ public class EktorpTestConfiguration {
         return new EktorpCrudRepository(Product.class, db);
     }
 
+    /**
+     * The condition of the map functions in Product.yaml.
+     */
+    private static boolean isProduct(Map<String, Object> doc) {
+        Object isoProductCode = doc.get("isoProductCode");
+        return isoProductCode instanceof Number && ((Number) isoProductCode).doubleValue() != 0
+                && doc.get("_id") != null;
+    }
+
 }
@@ -0,0 +1,91 @@
+package it.vinicioflamini.sharedlib.couchdb.test.server;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Orders view keys like CouchDB does: null, false, true, numbers, strings, arrays, objects.
+ * <p>
+ * Strings are compared by their code points instead of the ICU collation of CouchDB. This is good enough for tests.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class Collation implements Comparator<Object> {
+
+    public static final Collation INSTANCE = new Collation();
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(Object a, Object b) {
+        int rankA = rank(a);
+        int rankB = rank(b);
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+        switch (rankA) {
+        case 3:
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        case 4:
+            return ((String) a).compareTo((String) b);
+        case 5:
+            return compareLists((List) a, (List) b);
+        case 6:
+            return compareMaps((Map) a, (Map) b);
+        default:
+            return 0;
+        }
+    }
+
+    private int rank(Object o) {
+        if (o == null) {
+            return 0;
+        } else if (Boolean.FALSE.equals(o)) {
+            return 1;
+        } else if (Boolean.TRUE.equals(o)) {
+            return 2;
+        } else if (o instanceof Number) {
+            return 3;
+        } else if (o instanceof String) {
+            return 4;
+        } else if (o instanceof List) {
+            return 5;
+        } else {
+            return 6;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private int compareLists(List a, List b) {
+        Iterator itA = a.iterator();
+        Iterator itB = b.iterator();
+        while (itA.hasNext() && itB.hasNext()) {
+            int c = compare(itA.next(), itB.next());
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Boolean.compare(itA.hasNext(), itB.hasNext());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private int compareMaps(Map a, Map b) {
+        Iterator<Entry> itA = a.entrySet().iterator();
+        Iterator<Entry> itB = b.entrySet().iterator();
+        while (itA.hasNext() && itB.hasNext()) {
+            Entry entryA = itA.next();
+            Entry entryB = itB.next();
+            int c = compare(entryA.getKey(), entryB.getKey());
+            if (c == 0) {
+                c = compare(entryA.getValue(), entryB.getValue());
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Boolean.compare(itA.hasNext(), itB.hasNext());
+    }
+
+}
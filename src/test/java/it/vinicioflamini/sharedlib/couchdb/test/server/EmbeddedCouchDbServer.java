@@ -0,0 +1,556 @@
+package it.vinicioflamini.sharedlib.couchdb.test.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import it.vinicioflamini.sharedlib.couchdb.test.server.InMemoryDatabase.QueryResult;
+import it.vinicioflamini.sharedlib.couchdb.test.server.InMemoryDatabase.StoredAttachment;
+import it.vinicioflamini.sharedlib.couchdb.test.server.InMemoryDatabase.WriteResult;
+import it.vinicioflamini.sharedlib.couchdb.test.server.ViewDefinition.MapFunction;
+
+/**
+ * An in-process stand-in for a CouchDB server. It implements the part of the CouchDB HTTP API that is used by this
+ * library, so tests and benchmarks run without a real database:
+ * <ul>
+ * <li>databases: <code>PUT/GET/HEAD/DELETE /db</code>,
+ * <li>documents: <code>PUT/GET/HEAD/DELETE /db/doc</code> and <code>POST /db</code>,
+ * <li>attachments: <code>PUT/GET /db/doc/attachment</code>,
+ * <li><code>POST /db/_bulk_docs</code> and <code>GET/POST /db/_all_docs</code>,
+ * <li>views: <code>GET/POST /db/_design/ddoc/_view/view</code>,
+ * <li>changes: <code>GET /db/_changes</code> including <code>feed=continuous</code> and <code>since=now</code>.
+ * </ul>
+ * <p>
+ * Design documents are stored like any other document but their JavaScript is ignored. Instead, the views are defined
+ * in Java with {@link #defineView(String, String, MapFunction, String)}.
+ * <p>
+ * Latency and failures can be injected to test the behaviour of the library under load or on errors.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class EmbeddedCouchDbServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedCouchDbServer.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Map<String, InMemoryDatabase> databases = new ConcurrentHashMap<>();
+
+    private final Map<String, ViewDefinition> views = new ConcurrentHashMap<>();
+
+    private final List<String> requestLog = Collections.synchronizedList(new ArrayList<String>());
+
+    private final List<String> queryLog = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final Set<HttpExchange> changesFeeds = ConcurrentHashMap.newKeySet();
+
+    private volatile long latencyMillis;
+
+    private volatile double failureRate;
+
+    private EmbeddedCouchDbServer(HttpServer server) {
+        this.server = server;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "embedded-couchdb");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     */
+    public static EmbeddedCouchDbServer start() {
+        try {
+            HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            EmbeddedCouchDbServer couchDb = new EmbeddedCouchDbServer(httpServer);
+            httpServer.start();
+            logger.info("embedded CouchDB started at " + couchDb.getUrl());
+            return couchDb;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot start embedded CouchDB", e);
+        }
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Defines a view for all databases.
+     *
+     * @param designDocument the name of the design document without the prefix "_design/"
+     * @param viewName the name of the view
+     * @param map the map function
+     * @param reduce null or one of the built-in reduce functions "_count", "_sum", "_stats"
+     */
+    public void defineView(String designDocument, String viewName, MapFunction map, String reduce) {
+        views.put(designDocument + "/" + viewName, new ViewDefinition(map, reduce));
+    }
+
+    /**
+     * Every request is delayed by the given time.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * The given fraction of requests (between 0 and 1) fails with status 500.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * The next requests fail with status 500.
+     */
+    public void failNextRequests(int count) {
+        failures.set(count);
+    }
+
+    /**
+     * @return Returns the method and path of all requests since the last call of {@link #clearRequestLog()}.
+     */
+    public List<String> getRequestLog() {
+        synchronized (requestLog) {
+            return new ArrayList<>(requestLog);
+        }
+    }
+
+    /**
+     * @return Returns the method, path and raw query of all requests since the last call of {@link #clearRequestLog()}.
+     */
+    public List<String> getQueryLog() {
+        synchronized (queryLog) {
+            return new ArrayList<>(queryLog);
+        }
+    }
+
+    public void clearRequestLog() {
+        requestLog.clear();
+        queryLog.clear();
+    }
+
+    /**
+     * Closes the open continuous <i>_changes</i> feeds like a network failure does.
+     */
+    public void disconnectChangesFeeds() {
+        for (HttpExchange exchange : changesFeeds) {
+            changesFeeds.remove(exchange);
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return Returns the number of open continuous <i>_changes</i> feeds.
+     */
+    public int getChangesFeedCount() {
+        return changesFeeds.size();
+    }
+
+    public InMemoryDatabase getDatabase(String name) {
+        return databases.get(name);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /*
+     * LOCAL METHODS
+     */
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            List<String> path = path(exchange);
+            requestLog.add(method + " " + exchange.getRequestURI().getRawPath());
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            queryLog.add(method + " " + exchange.getRequestURI().getRawPath() + "?" + (rawQuery == null ? ""
+                    : rawQuery));
+
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                    || (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate)) {
+                sendError(exchange, 500, "internal_server_error", "injected failure");
+                return;
+            }
+
+            route(exchange, method, path);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, "bad_request", e.getMessage());
+        } catch (IOException e) {
+            // the client has aborted the request
+            logger.debug("embedded CouchDB could not respond", e);
+        } catch (Exception e) {
+            logger.error("embedded CouchDB failed", e);
+            sendError(exchange, 500, "internal_server_error", String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, List<String> path) throws IOException {
+        if (path.isEmpty()) {
+            Map<String, Object> welcome = new LinkedHashMap<>();
+            welcome.put("couchdb", "Welcome");
+            welcome.put("version", "1.7.0");
+            send(exchange, 200, welcome);
+            return;
+        }
+
+        String dbName = path.get(0);
+        if (path.size() == 1) {
+            handleDatabase(exchange, method, dbName);
+            return;
+        }
+
+        InMemoryDatabase db = databases.get(dbName);
+        if (db == null) {
+            sendError(exchange, 404, "not_found", "no_db_file");
+            return;
+        }
+
+        String first = path.get(1);
+        if ("_bulk_docs".equals(first)) {
+            handleBulkDocs(exchange, db);
+        } else if ("_changes".equals(first)) {
+            handleChanges(exchange, db);
+        } else if ("_all_docs".equals(first)) {
+            sendQueryResult(exchange, db.allDocs(queryParameters(exchange)));
+        } else if (first.startsWith("_design/") || ("_design".equals(first) && path.size() > 2)) {
+            // the slash of the design document ID may be encoded or not
+            String docId = first.startsWith("_design/") ? first : "_design/" + path.get(2);
+            List<String> rest = path.subList(first.startsWith("_design/") ? 2 : 3, path.size());
+            if (rest.size() == 2 && "_view".equals(rest.get(0))) {
+                handleView(exchange, db, docId.substring("_design/".length()), rest.get(1));
+            } else {
+                handleDocument(exchange, method, db, docId, rest);
+            }
+        } else {
+            handleDocument(exchange, method, db, first, path.subList(2, path.size()));
+        }
+    }
+
+    private void handleDatabase(HttpExchange exchange, String method, String dbName) throws IOException {
+        InMemoryDatabase db = databases.get(dbName);
+        switch (method) {
+        case "HEAD":
+        case "GET":
+            if (db == null) {
+                sendError(exchange, 404, "not_found", "no_db_file");
+            } else {
+                send(exchange, 200, db.info());
+            }
+            break;
+        case "PUT":
+            if (databases.putIfAbsent(dbName, new InMemoryDatabase(dbName)) == null) {
+                send(exchange, 201, Collections.singletonMap("ok", true));
+            } else {
+                sendError(exchange, 412, "file_exists", "The database could not be created, the file already exists.");
+            }
+            break;
+        case "DELETE":
+            if (databases.remove(dbName) == null) {
+                sendError(exchange, 404, "not_found", "missing");
+            } else {
+                send(exchange, 200, Collections.singletonMap("ok", true));
+            }
+            break;
+        case "POST":
+            if (db == null) {
+                sendError(exchange, 404, "not_found", "no_db_file");
+            } else {
+                sendWriteResult(exchange, db.write(readJson(exchange)));
+            }
+            break;
+        default:
+            sendError(exchange, 405, "method_not_allowed", method);
+        }
+    }
+
+    private void handleDocument(HttpExchange exchange, String method, InMemoryDatabase db, String docId,
+            List<String> attachmentPath) throws IOException {
+        if (!attachmentPath.isEmpty()) {
+            handleAttachment(exchange, method, db, docId, String.join("/", attachmentPath));
+            return;
+        }
+        Map<String, String> query = query(exchange);
+        switch (method) {
+        case "HEAD":
+        case "GET":
+            Map<String, Object> doc = db.get(docId);
+            if (doc == null) {
+                sendError(exchange, 404, "not_found", db.isDeleted(docId) ? "deleted" : "missing");
+            } else if (etagMatches(exchange, (String) doc.get("_rev"))) {
+                exchange.getResponseHeaders().set("ETag", etag((String) doc.get("_rev")));
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().set("ETag", etag((String) doc.get("_rev")));
+                send(exchange, 200, doc);
+            }
+            break;
+        case "PUT":
+            Map<String, Object> json = readJson(exchange);
+            json.put("_id", docId);
+            if (query.containsKey("rev")) {
+                json.put("_rev", query.get("rev"));
+            }
+            sendWriteResult(exchange, db.write(json));
+            break;
+        case "DELETE":
+            sendWriteResult(exchange, db.delete(docId, query.get("rev")));
+            break;
+        default:
+            sendError(exchange, 405, "method_not_allowed", method);
+        }
+    }
+
+    private void handleAttachment(HttpExchange exchange, String method, InMemoryDatabase db, String docId,
+            String attachmentName) throws IOException {
+        switch (method) {
+        case "HEAD":
+        case "GET":
+            StoredAttachment attachment = db.getAttachment(docId, attachmentName);
+            if (attachment == null) {
+                sendError(exchange, 404, "not_found", "Document is missing attachment");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", attachment.contentType);
+            exchange.getResponseHeaders().set("ETag", "\"" + attachment.digest + "\"");
+            if ("HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(attachment.data.length));
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, attachment.data.length);
+                exchange.getResponseBody().write(attachment.data);
+            }
+            break;
+        case "PUT":
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            sendWriteResult(exchange, db.putAttachment(docId, query(exchange).get("rev"), attachmentName,
+                    contentType, readBytes(exchange)));
+            break;
+        default:
+            sendError(exchange, 405, "method_not_allowed", method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleBulkDocs(HttpExchange exchange, InMemoryDatabase db) throws IOException {
+        Map<String, Object> body = readJson(exchange);
+        List<WriteResult> results = db.bulk((List<Map<String, Object>>) body.get("docs"));
+        List<Map<String, Object>> rows = new ArrayList<>(results.size());
+        for (WriteResult result : results) {
+            rows.add(result.toBulkRow());
+        }
+        send(exchange, 201, rows);
+    }
+
+    private void handleView(HttpExchange exchange, InMemoryDatabase db, String designDocument, String viewName)
+            throws IOException {
+        ViewDefinition view = views.get(designDocument + "/" + viewName);
+        if (view == null || db.get("_design/" + designDocument) == null) {
+            sendError(exchange, 404, "not_found", "missing_named_view");
+            return;
+        }
+        sendQueryResult(exchange, db.queryView(view, queryParameters(exchange)));
+    }
+
+    private void handleChanges(HttpExchange exchange, InMemoryDatabase db) throws IOException {
+        Map<String, String> query = query(exchange);
+        String since = query.get("since");
+        long seq = since == null ? 0 : "now".equals(since) ? db.getUpdateSeq() : Long.parseLong(since);
+        if (!"continuous".equals(query.get("feed"))) {
+            List<Map<String, Object>> results;
+            try {
+                results = db.awaitChanges(seq, 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("results", results);
+            body.put("last_seq", results.isEmpty() ? seq : results.get(results.size() - 1).get("seq"));
+            send(exchange, 200, body);
+            return;
+        }
+
+        long heartbeat = query.containsKey("heartbeat") ? Long.parseLong(query.get("heartbeat")) : 60000;
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        changesFeeds.add(exchange);
+        // one line per change and an empty line per heartbeat until the client or the server disconnects
+        try {
+            OutputStream out = exchange.getResponseBody();
+            while (changesFeeds.contains(exchange)) {
+                List<Map<String, Object>> changes = db.awaitChanges(seq, heartbeat);
+                for (Map<String, Object> change : changes) {
+                    out.write(objectMapper.writeValueAsBytes(change));
+                    out.write('\n');
+                    seq = (Long) change.get("seq");
+                }
+                if (changes.isEmpty()) {
+                    out.write('\n');
+                }
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            changesFeeds.remove(exchange);
+        }
+    }
+
+    private QueryParameters queryParameters(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = "POST".equals(exchange.getRequestMethod()) ? readJson(exchange) : null;
+        return new QueryParameters(query(exchange), body);
+    }
+
+    private void sendQueryResult(HttpExchange exchange, QueryResult result) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        // the rows are written one by one like CouchDB does
+        try (OutputStream out = exchange.getResponseBody();
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            if (result.getTotalRows() != null) {
+                generator.writeNumberField("total_rows", result.getTotalRows());
+                generator.writeNumberField("offset", result.getOffset());
+            }
+            if ("true".equals(query(exchange).get("update_seq"))) {
+                generator.writeNumberField("update_seq", result.getUpdateSeq());
+            }
+            generator.writeArrayFieldStart("rows");
+            for (Map<String, Object> row : result.getRows()) {
+                generator.writeRaw("\r\n");
+                objectMapper.writeValue(generator, row);
+            }
+            generator.writeRaw("\r\n");
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private void sendWriteResult(HttpExchange exchange, WriteResult result) throws IOException {
+        if (result.isOk()) {
+            exchange.getResponseHeaders().set("ETag", etag(result.getRev()));
+        }
+        send(exchange, result.getStatus(), result.toResponse());
+    }
+
+    private void sendError(HttpExchange exchange, int status, String error, String reason) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", error);
+        body.put("reason", reason);
+        send(exchange, status, body);
+    }
+
+    private void send(HttpExchange exchange, int status, Object json) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(json);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private boolean etagMatches(HttpExchange exchange, String rev) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        return ifNoneMatch != null && ifNoneMatch.replace("\"", "").equals(rev);
+    }
+
+    private String etag(String rev) {
+        return "\"" + rev + "\"";
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readJson(HttpExchange exchange) throws IOException {
+        byte[] bytes = readBytes(exchange);
+        if (bytes.length == 0) {
+            return new LinkedHashMap<>();
+        }
+        return objectMapper.readValue(bytes, LinkedHashMap.class);
+    }
+
+    private byte[] readBytes(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private List<String> path(HttpExchange exchange) throws UnsupportedEncodingException {
+        List<String> segments = new ArrayList<>();
+        for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, "UTF-8"));
+            }
+        }
+        return segments;
+    }
+
+    private Map<String, String> query(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> query = new LinkedHashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int index = pair.indexOf('=');
+                if (index > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                            URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                } else if (!pair.isEmpty()) {
+                    query.put(URLDecoder.decode(pair, "UTF-8"), "");
+                }
+            }
+        }
+        return query;
+    }
+
+}
@@ -0,0 +1,111 @@
+package it.vinicioflamini.sharedlib.couchdb.test.server;
+
+import static com.googlecode.catchexception.CatchException.catchException;
+import static com.googlecode.catchexception.CatchException.caughtException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.http.StdHttpClient;
+import org.ektorp.impl.StdCouchDbConnector;
+import org.ektorp.impl.StdCouchDbInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.vinicioflamini.sharedlib.couchdb.ektorp.EktorpCrudRepository;
+
+/**
+ * Tests the injection of latency and failures into {@link EmbeddedCouchDbServer}. The CouchDB API itself is covered by
+ * the repository tests.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class EmbeddedCouchDbServerTest {
+
+    private EmbeddedCouchDbServer server;
+
+    private EktorpCrudRepository<Map<String, Object>, String> repository;
+
+    @Before
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void setUp() throws Exception {
+        server = EmbeddedCouchDbServer.start();
+        server.defineView("Map", "by_id", (doc, emitter) -> emitter.emit(doc.get("_id"), doc.get("_rev")), "_count");
+
+        CouchDbConnector db = new StdCouchDbConnector("test", new StdCouchDbInstance(new StdHttpClient.Builder().url(
+                server.getUrl()).build()));
+        db.createDatabaseIfNotExists();
+        Map<String, Object> designDocument = new HashMap<>();
+        designDocument.put("_id", "_design/Map");
+        db.create(designDocument);
+        repository = new EktorpCrudRepository(Map.class, db);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testFailNextRequests() throws Exception {
+        repository.saveAll(documents(3));
+        server.failNextRequests(1);
+
+        catchException(repository).count();
+
+        assertTrue(caughtException() instanceof DbAccessException);
+        assertEquals(3, repository.count());
+    }
+
+    @Test
+    public void testFailureRate() throws Exception {
+        server.setFailureRate(1);
+
+        catchException(repository).existsById("a");
+
+        assertTrue(caughtException() instanceof DbAccessException);
+        server.setFailureRate(0);
+        assertEquals(0, repository.count());
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        server.setLatencyMillis(100);
+
+        long start = System.nanoTime();
+        repository.count();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("elapsed: " + elapsedMillis, elapsedMillis >= 100);
+    }
+
+    @Test
+    public void testRequestLog() throws Exception {
+        server.clearRequestLog();
+
+        repository.saveAll(documents(2));
+        repository.count();
+
+        assertEquals(2, server.getRequestLog().size());
+        assertTrue(server.getRequestLog().get(0).startsWith("POST /test/_bulk_docs"));
+        assertTrue(server.getRequestLog().get(1).startsWith("GET /test/_design/Map/_view/by_id"));
+    }
+
+    private List<Map<String, Object>> documents(int count) {
+        List<Map<String, Object>> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> document = new HashMap<>();
+            document.put("_id", "doc-" + i);
+            documents.add(document);
+        }
+        return documents;
+    }
+
+}
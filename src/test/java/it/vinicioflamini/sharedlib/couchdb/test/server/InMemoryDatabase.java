@@ -0,0 +1,721 @@
+package it.vinicioflamini.sharedlib.couchdb.test.server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A CouchDB database held in memory. All methods are synchronized, i.e. requests are processed one after the other.
+ * <p>
+ * Views are computed on demand and cached until the next write.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class InMemoryDatabase {
+
+    /**
+     * The outcome of writing a single document.
+     */
+    public static class WriteResult {
+
+        private final int status;
+
+        private final String id;
+
+        private final String rev;
+
+        private final String error;
+
+        private final String reason;
+
+        WriteResult(int status, String id, String rev, String error, String reason) {
+            this.status = status;
+            this.id = id;
+            this.rev = rev;
+            this.error = error;
+            this.reason = reason;
+        }
+
+        static WriteResult ok(int status, String id, String rev) {
+            return new WriteResult(status, id, rev, null, null);
+        }
+
+        static WriteResult error(int status, String id, String error, String reason) {
+            return new WriteResult(status, id, null, error, reason);
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getRev() {
+            return rev;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+
+        /**
+         * @return Returns the JSON of a row in a <code>_bulk_docs</code> response.
+         */
+        public Map<String, Object> toBulkRow() {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", id);
+            if (error == null) {
+                row.put("rev", rev);
+            } else {
+                row.put("error", error);
+                row.put("reason", reason);
+            }
+            return row;
+        }
+
+        /**
+         * @return Returns the JSON of a response to a single document request.
+         */
+        public Map<String, Object> toResponse() {
+            Map<String, Object> response = new LinkedHashMap<>();
+            if (error == null) {
+                response.put("ok", true);
+                response.put("id", id);
+                response.put("rev", rev);
+            } else {
+                response.put("error", error);
+                response.put("reason", reason);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * The result of a view or <code>_all_docs</code> query.
+     */
+    public static class QueryResult {
+
+        private final Long totalRows;
+
+        private final Long offset;
+
+        private final long updateSeq;
+
+        private final List<Map<String, Object>> rows;
+
+        QueryResult(Long totalRows, Long offset, long updateSeq, List<Map<String, Object>> rows) {
+            this.totalRows = totalRows;
+            this.offset = offset;
+            this.updateSeq = updateSeq;
+            this.rows = rows;
+        }
+
+        public Long getTotalRows() {
+            return totalRows;
+        }
+
+        public Long getOffset() {
+            return offset;
+        }
+
+        public long getUpdateSeq() {
+            return updateSeq;
+        }
+
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+    }
+
+    static class StoredAttachment {
+
+        String contentType;
+
+        byte[] data;
+
+        int revpos;
+
+        String digest;
+    }
+
+    static class StoredDoc {
+
+        String id;
+
+        int generation;
+
+        String rev;
+
+        boolean deleted;
+
+        long seq;
+
+        Map<String, Object> body = new LinkedHashMap<>();
+
+        Map<String, StoredAttachment> attachments = new LinkedHashMap<>();
+    }
+
+    private static class IndexRow {
+
+        final Object key;
+
+        final String id;
+
+        final Object value;
+
+        IndexRow(Object key, String id, Object value) {
+            this.key = key;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    private static final Comparator<IndexRow> ROW_ORDER = (a, b) -> {
+        int c = Collation.INSTANCE.compare(a.key, b.key);
+        return c != 0 ? c : a.id.compareTo(b.id);
+    };
+
+    private final String name;
+
+    private final TreeMap<String, StoredDoc> docs = new TreeMap<>();
+
+    private final TreeMap<Long, String> changes = new TreeMap<>();
+
+    private final Map<ViewDefinition, List<IndexRow>> indexes = new HashMap<>();
+
+    private long updateSeq;
+
+    public InMemoryDatabase(String name) {
+        super();
+        this.name = name;
+    }
+
+    public synchronized long getUpdateSeq() {
+        return updateSeq;
+    }
+
+    public synchronized Map<String, Object> info() {
+        long docCount = 0;
+        long delCount = 0;
+        for (StoredDoc doc : docs.values()) {
+            if (doc.deleted) {
+                delCount++;
+            } else {
+                docCount++;
+            }
+        }
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("db_name", name);
+        info.put("doc_count", docCount);
+        info.put("doc_del_count", delCount);
+        info.put("update_seq", updateSeq);
+        info.put("purge_seq", 0);
+        info.put("compact_running", false);
+        info.put("disk_size", 0);
+        info.put("data_size", 0);
+        info.put("instance_start_time", "0");
+        info.put("disk_format_version", 6);
+        info.put("committed_update_seq", updateSeq);
+        return info;
+    }
+
+    /**
+     * Waits up to the given time until a document is changed after the given sequence number.
+     *
+     * @return Returns the rows of the <i>_changes</i> feed after the given sequence number, i.e. the latest change of
+     *         each document, or an empty list if the time has elapsed.
+     */
+    public synchronized List<Map<String, Object>> awaitChanges(long since, long timeoutMillis)
+            throws InterruptedException {
+        if (updateSeq <= since && timeoutMillis > 0) {
+            wait(timeoutMillis);
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (String id : changes.tailMap(since, false).values()) {
+            StoredDoc doc = docs.get(id);
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("seq", doc.seq);
+            row.put("id", doc.id);
+            row.put("changes", Collections.singletonList(Collections.singletonMap("rev", doc.rev)));
+            if (doc.deleted) {
+                row.put("deleted", true);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * @return Returns the rendered document or null if it is missing or deleted.
+     */
+    public synchronized Map<String, Object> get(String id) {
+        StoredDoc doc = docs.get(id);
+        return doc == null || doc.deleted ? null : render(doc);
+    }
+
+    /**
+     * @return Returns the current revision or null if the document is missing or deleted.
+     */
+    public synchronized String getRev(String id) {
+        StoredDoc doc = docs.get(id);
+        return doc == null || doc.deleted ? null : doc.rev;
+    }
+
+    public synchronized boolean isDeleted(String id) {
+        StoredDoc doc = docs.get(id);
+        return doc != null && doc.deleted;
+    }
+
+    public synchronized StoredAttachment getAttachment(String id, String attachmentName) {
+        StoredDoc doc = docs.get(id);
+        return doc == null || doc.deleted ? null : doc.attachments.get(attachmentName);
+    }
+
+    /**
+     * Creates, updates or deletes (if "_deleted" is true) a document.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized WriteResult write(Map<String, Object> json) {
+        String id = (String) json.get("_id");
+        if (id == null) {
+            id = UUID.randomUUID().toString().replace("-", "");
+        }
+        String rev = (String) json.get("_rev");
+        StoredDoc existing = docs.get(id);
+        boolean exists = existing != null && !existing.deleted;
+        if (exists ? !existing.rev.equals(rev) : rev != null && (existing == null || !existing.rev.equals(rev))) {
+            return WriteResult.error(409, id, "conflict", "Document update conflict.");
+        }
+
+        StoredDoc doc = new StoredDoc();
+        doc.id = id;
+        doc.generation = existing == null ? 1 : existing.generation + 1;
+        doc.deleted = Boolean.TRUE.equals(json.get("_deleted"));
+        if (!doc.deleted) {
+            for (Entry<String, Object> entry : json.entrySet()) {
+                if (!entry.getKey().startsWith("_")) {
+                    doc.body.put(entry.getKey(), entry.getValue());
+                }
+            }
+            Object attachments = json.get("_attachments");
+            if (attachments instanceof Map) {
+                for (Entry<String, Map<String, Object>> entry : ((Map<String, Map<String, Object>>) attachments)
+                        .entrySet()) {
+                    Map<String, Object> attachment = entry.getValue();
+                    if (Boolean.TRUE.equals(attachment.get("stub"))) {
+                        StoredAttachment stored = exists ? existing.attachments.get(entry.getKey()) : null;
+                        if (stored == null) {
+                            return WriteResult.error(412, id, "missing_stub", "Invalid attachment stub in " + id
+                                    + " for " + entry.getKey());
+                        }
+                        doc.attachments.put(entry.getKey(), stored);
+                    } else {
+                        byte[] data = Base64.getDecoder().decode((String) attachment.get("data"));
+                        doc.attachments.put(entry.getKey(),
+                                newAttachment((String) attachment.get("content_type"), data, doc.generation));
+                    }
+                }
+            }
+        }
+        store(doc);
+        return WriteResult.ok(201, id, doc.rev);
+    }
+
+    public synchronized WriteResult delete(String id, String rev) {
+        StoredDoc existing = docs.get(id);
+        if (existing == null || existing.deleted) {
+            return WriteResult.error(404, id, "not_found", existing == null ? "missing" : "deleted");
+        }
+        Map<String, Object> json = new HashMap<>();
+        json.put("_id", id);
+        json.put("_rev", rev);
+        json.put("_deleted", true);
+        WriteResult result = write(json);
+        return result.isOk() ? WriteResult.ok(200, id, result.getRev()) : result;
+    }
+
+    public synchronized WriteResult putAttachment(String id, String rev, String attachmentName, String contentType,
+            byte[] data) {
+        StoredDoc existing = docs.get(id);
+        boolean exists = existing != null && !existing.deleted;
+        if (exists ? !existing.rev.equals(rev) : rev != null) {
+            return WriteResult.error(409, id, "conflict", "Document update conflict.");
+        }
+        StoredDoc doc = new StoredDoc();
+        doc.id = id;
+        doc.generation = existing == null ? 1 : existing.generation + 1;
+        if (exists) {
+            doc.body.putAll(existing.body);
+            doc.attachments.putAll(existing.attachments);
+        }
+        doc.attachments.put(attachmentName, newAttachment(contentType, data, doc.generation));
+        store(doc);
+        return WriteResult.ok(201, id, doc.rev);
+    }
+
+    public synchronized List<WriteResult> bulk(List<Map<String, Object>> jsonDocs) {
+        List<WriteResult> results = new ArrayList<>(jsonDocs.size());
+        for (Map<String, Object> json : jsonDocs) {
+            results.add(write(json));
+        }
+        return results;
+    }
+
+    /**
+     * Queries the given view.
+     */
+    public synchronized QueryResult queryView(ViewDefinition view, QueryParameters params) {
+        List<IndexRow> index = index(view);
+        boolean reduce = view.getReduce() != null && params.bool("reduce", true);
+        if (reduce && params.bool("include_docs", false)) {
+            throw new IllegalArgumentException("include_docs is invalid for reduce");
+        }
+
+        List<IndexRow> selected;
+        long offset;
+        if (params.getKeys() != null) {
+            selected = new ArrayList<>();
+            for (Object key : params.getKeys()) {
+                selected.addAll(range(index, key, null, key, null, true, params.bool("descending", false)));
+            }
+            offset = 0;
+        } else {
+            Object key = params.json("key");
+            Object startKey = params.has("key") ? key : params.json("startkey", "start_key");
+            Object endKey = params.has("key") ? key : params.json("endkey", "end_key");
+            boolean hasStart = params.has("key") || params.has("startkey") || params.has("start_key");
+            boolean hasEnd = params.has("key") || params.has("endkey") || params.has("end_key");
+            selected = range(index, hasStart ? startKey : Bound.NONE,
+                    params.string("startkey_docid", "start_key_doc_id"), hasEnd ? endKey : Bound.NONE,
+                    params.string("endkey_docid", "end_key_doc_id"), params.bool("inclusive_end", true),
+                    params.bool("descending", false));
+            offset = selected.isEmpty() ? 0 : positionOf(index, selected.get(0), params.bool("descending", false));
+        }
+
+        if (reduce) {
+            return new QueryResult(null, null, updateSeq,
+                    page(reduce(view.getReduce(), selected, params), params));
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        boolean includeDocs = params.bool("include_docs", false);
+        for (IndexRow indexRow : selected) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", indexRow.id);
+            row.put("key", indexRow.key);
+            row.put("value", indexRow.value);
+            if (includeDocs) {
+                row.put("doc", linkedDoc(indexRow));
+            }
+            rows.add(row);
+        }
+        return new QueryResult((long) index.size(), offset + params.integer("skip", 0), updateSeq,
+                page(rows, params));
+    }
+
+    /**
+     * Queries <code>_all_docs</code>.
+     */
+    public synchronized QueryResult allDocs(QueryParameters params) {
+        boolean includeDocs = params.bool("include_docs", false);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        long liveDocs = docs.values().stream().filter(d -> !d.deleted).count();
+
+        if (params.getKeys() != null) {
+            for (Object key : params.getKeys()) {
+                StoredDoc doc = key instanceof String ? docs.get(key) : null;
+                Map<String, Object> row = new LinkedHashMap<>();
+                if (doc == null) {
+                    row.put("key", key);
+                    row.put("error", "not_found");
+                } else {
+                    row.put("id", doc.id);
+                    row.put("key", doc.id);
+                    Map<String, Object> value = new LinkedHashMap<>();
+                    value.put("rev", doc.rev);
+                    if (doc.deleted) {
+                        value.put("deleted", true);
+                    }
+                    row.put("value", value);
+                    if (includeDocs) {
+                        row.put("doc", doc.deleted ? null : render(doc));
+                    }
+                }
+                rows.add(row);
+            }
+            return new QueryResult(liveDocs, 0L, updateSeq, page(rows, params));
+        }
+
+        List<IndexRow> index = new ArrayList<>();
+        for (StoredDoc doc : docs.values()) {
+            if (!doc.deleted) {
+                index.add(new IndexRow(doc.id, doc.id, Collections.singletonMap("rev", doc.rev)));
+            }
+        }
+        List<IndexRow> selected = range(index,
+                params.has("startkey") || params.has("start_key") ? params.json("startkey", "start_key")
+                        : Bound.NONE, null,
+                params.has("endkey") || params.has("end_key") ? params.json("endkey", "end_key") : Bound.NONE, null,
+                params.bool("inclusive_end", true), params.bool("descending", false));
+        for (IndexRow indexRow : selected) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", indexRow.id);
+            row.put("key", indexRow.key);
+            row.put("value", indexRow.value);
+            if (includeDocs) {
+                row.put("doc", render(docs.get(indexRow.id)));
+            }
+            rows.add(row);
+        }
+        long offset = selected.isEmpty() ? 0 : positionOf(index, selected.get(0), params.bool("descending", false));
+        return new QueryResult(liveDocs, offset + params.integer("skip", 0), updateSeq, page(rows, params));
+    }
+
+    /*
+     * LOCAL METHODS
+     */
+
+    private enum Bound {
+        NONE
+    }
+
+    private void store(StoredDoc doc) {
+        doc.rev = doc.generation + "-" + UUID.randomUUID().toString().replace("-", "");
+        StoredDoc previous = docs.put(doc.id, doc);
+        if (previous != null) {
+            changes.remove(previous.seq);
+        }
+        doc.seq = ++updateSeq;
+        changes.put(doc.seq, doc.id);
+        indexes.clear();
+        notifyAll();
+    }
+
+    private StoredAttachment newAttachment(String contentType, byte[] data, int revpos) {
+        StoredAttachment attachment = new StoredAttachment();
+        attachment.contentType = contentType;
+        attachment.data = data;
+        attachment.revpos = revpos;
+        try {
+            attachment.digest = "md5-" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(
+                    data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return attachment;
+    }
+
+    Map<String, Object> render(StoredDoc doc) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("_id", doc.id);
+        json.put("_rev", doc.rev);
+        json.putAll(doc.body);
+        if (!doc.attachments.isEmpty()) {
+            Map<String, Object> attachments = new LinkedHashMap<>();
+            for (Entry<String, StoredAttachment> entry : doc.attachments.entrySet()) {
+                Map<String, Object> stub = new LinkedHashMap<>();
+                stub.put("content_type", entry.getValue().contentType);
+                stub.put("revpos", entry.getValue().revpos);
+                stub.put("digest", entry.getValue().digest);
+                stub.put("length", entry.getValue().data.length);
+                stub.put("stub", true);
+                attachments.put(entry.getKey(), stub);
+            }
+            json.put("_attachments", attachments);
+        }
+        return json;
+    }
+
+    private List<IndexRow> index(ViewDefinition view) {
+        List<IndexRow> index = indexes.get(view);
+        if (index == null) {
+            List<IndexRow> rows = new ArrayList<>();
+            for (StoredDoc doc : docs.values()) {
+                if (!doc.deleted && !doc.id.startsWith("_design/")) {
+                    Map<String, Object> json = Collections.unmodifiableMap(render(doc));
+                    view.getMap().map(json, (key, value) -> rows.add(new IndexRow(key, doc.id, value)));
+                }
+            }
+            rows.sort(ROW_ORDER);
+            index = rows;
+            indexes.put(view, index);
+        }
+        return index;
+    }
+
+    private List<IndexRow> range(List<IndexRow> index, Object startKey, String startDocId, Object endKey,
+            String endDocId, boolean inclusiveEnd, boolean descending) {
+        List<IndexRow> result = new ArrayList<>();
+        if (!descending) {
+            int from = startKey == Bound.NONE ? 0 : firstNotBefore(index, startKey, startDocId);
+            for (int i = from; i < index.size(); i++) {
+                IndexRow row = index.get(i);
+                if (endKey != Bound.NONE) {
+                    int c = compare(row, endKey, endDocId);
+                    if (c > 0 || (c == 0 && !inclusiveEnd)) {
+                        break;
+                    }
+                }
+                result.add(row);
+            }
+        } else {
+            int from = startKey == Bound.NONE ? index.size() - 1 : lastNotAfter(index, startKey, startDocId);
+            for (int i = from; i >= 0; i--) {
+                IndexRow row = index.get(i);
+                if (endKey != Bound.NONE) {
+                    int c = compare(row, endKey, endDocId);
+                    if (c < 0 || (c == 0 && !inclusiveEnd)) {
+                        break;
+                    }
+                }
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    private int firstNotBefore(List<IndexRow> index, Object key, String docId) {
+        int low = 0;
+        int high = index.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(index.get(middle), key, docId) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int lastNotAfter(List<IndexRow> index, Object key, String docId) {
+        int low = 0;
+        int high = index.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(index.get(middle), key, docId) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    private int compare(IndexRow row, Object key, String docId) {
+        int c = Collation.INSTANCE.compare(row.key, key);
+        if (c == 0 && docId != null) {
+            c = row.id.compareTo(docId);
+        }
+        return c;
+    }
+
+    private long positionOf(List<IndexRow> index, IndexRow row, boolean descending) {
+        int position = index.indexOf(row);
+        return descending ? index.size() - 1 - position : position;
+    }
+
+    private Object linkedDoc(IndexRow row) {
+        String id = row.id;
+        if (row.value instanceof Map && ((Map<?, ?>) row.value).get("_id") instanceof String) {
+            id = (String) ((Map<?, ?>) row.value).get("_id");
+        }
+        StoredDoc doc = docs.get(id);
+        return doc == null || doc.deleted ? null : render(doc);
+    }
+
+    private List<Map<String, Object>> reduce(String function, List<IndexRow> rows, QueryParameters params) {
+        int groupLevel;
+        if (params.has("group_level")) {
+            groupLevel = params.integer("group_level", 0);
+        } else {
+            groupLevel = params.bool("group", false) ? Integer.MAX_VALUE : 0;
+        }
+
+        // the rows are sorted by key, i.e. the rows of a group are adjacent
+        List<Map<String, Object>> result = new ArrayList<>();
+        List<IndexRow> group = new ArrayList<>();
+        Object currentKey = null;
+        for (IndexRow row : rows) {
+            Object key = groupKey(row.key, groupLevel);
+            if (!group.isEmpty() && Collation.INSTANCE.compare(currentKey, key) != 0) {
+                result.add(reduceRow(function, currentKey, group));
+                group = new ArrayList<>();
+            }
+            currentKey = key;
+            group.add(row);
+        }
+        if (!group.isEmpty()) {
+            result.add(reduceRow(function, currentKey, group));
+        }
+        return result;
+    }
+
+    private Map<String, Object> reduceRow(String function, Object key, List<IndexRow> group) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("key", key);
+        row.put("value", reduceValues(function, group));
+        return row;
+    }
+
+    private Object groupKey(Object key, int groupLevel) {
+        if (groupLevel == 0) {
+            return null;
+        } else if (key instanceof List && groupLevel < ((List<?>) key).size()) {
+            return new ArrayList<>(((List<?>) key).subList(0, groupLevel));
+        } else {
+            return key;
+        }
+    }
+
+    private Object reduceValues(String function, List<IndexRow> rows) {
+        if ("_count".equals(function)) {
+            return (long) rows.size();
+        }
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sumsqr = 0;
+        boolean integral = true;
+        for (IndexRow row : rows) {
+            if (!(row.value instanceof Number)) {
+                throw new IllegalArgumentException(function + " requires numeric values, not " + row.value);
+            }
+            Number number = (Number) row.value;
+            integral &= !(number instanceof Double || number instanceof Float);
+            double value = number.doubleValue();
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sumsqr += value * value;
+        }
+        if ("_sum".equals(function)) {
+            return integral ? (Object) (long) sum : (Object) sum;
+        } else if ("_stats".equals(function)) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("sum", sum);
+            stats.put("count", (long) rows.size());
+            stats.put("min", rows.isEmpty() ? 0 : min);
+            stats.put("max", rows.isEmpty() ? 0 : max);
+            stats.put("sumsqr", sumsqr);
+            return stats;
+        } else {
+            throw new IllegalArgumentException("unsupported reduce function " + function);
+        }
+    }
+
+    private List<Map<String, Object>> page(List<Map<String, Object>> rows, QueryParameters params) {
+        int skip = Math.min(params.integer("skip", 0), rows.size());
+        int limit = params.integer("limit", Integer.MAX_VALUE);
+        return rows.subList(skip, (int) Math.min(rows.size(), (long) skip + limit));
+    }
+
+}
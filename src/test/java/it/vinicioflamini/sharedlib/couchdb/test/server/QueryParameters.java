@@ -0,0 +1,78 @@
+package it.vinicioflamini.sharedlib.couchdb.test.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The parameters of a view or <code>_all_docs</code> query, parsed from the query string and the body of a POST
+ * request.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class QueryParameters {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, String> query;
+
+    private final List<Object> keys;
+
+    @SuppressWarnings("unchecked")
+    public QueryParameters(Map<String, String> query, Map<String, Object> body) {
+        super();
+        this.query = query;
+        if (body != null && body.get("keys") instanceof List) {
+            this.keys = (List<Object>) body.get("keys");
+        } else if (query.containsKey("keys")) {
+            this.keys = (List<Object>) json("keys");
+        } else {
+            this.keys = null;
+        }
+    }
+
+    public boolean has(String name) {
+        return query.containsKey(name);
+    }
+
+    public Object json(String... names) {
+        for (String name : names) {
+            String value = query.get(name);
+            if (value != null) {
+                try {
+                    return MAPPER.readValue(value, Object.class);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("invalid JSON in parameter " + name + ": " + value, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    public String string(String... names) {
+        for (String name : names) {
+            String value = query.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    public boolean bool(String name, boolean defaultValue) {
+        String value = query.get(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int integer(String name, int defaultValue) {
+        String value = query.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public List<Object> getKeys() {
+        return keys;
+    }
+
+}
@@ -0,0 +1,52 @@
+package it.vinicioflamini.sharedlib.couchdb.test.server;
+
+import java.util.Map;
+
+/**
+ * A view of the {@link EmbeddedCouchDbServer}. The map function is written in Java instead of JavaScript, the reduce
+ * function is one of the built-in reduce functions of CouchDB.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class ViewDefinition {
+
+    /**
+     * Receives the rows emitted by a {@link MapFunction}.
+     */
+    public interface Emitter {
+
+        void emit(Object key, Object value);
+
+    }
+
+    /**
+     * The Java counterpart of a JavaScript map function <code>function(doc) { emit(key, value); }</code>.
+     */
+    public interface MapFunction {
+
+        void map(Map<String, Object> doc, Emitter emitter);
+
+    }
+
+    private final MapFunction map;
+
+    /**
+     * null or "_count" or "_sum" or "_stats"
+     */
+    private final String reduce;
+
+    public ViewDefinition(MapFunction map, String reduce) {
+        super();
+        this.map = map;
+        this.reduce = reduce;
+    }
+
+    public MapFunction getMap() {
+        return map;
+    }
+
+    public String getReduce() {
+        return reduce;
+    }
+
+}
@@ -0,0 +1,77 @@
+package it.vinicioflamini.sharedlib.couchdb.test.support;
+
+import static com.googlecode.catchexception.CatchException.catchException;
+import static com.googlecode.catchexception.CatchException.caughtException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import it.vinicioflamini.sharedlib.couchdb.support.BoundedExecutor;
+import it.vinicioflamini.sharedlib.couchdb.support.ExecutorStats;
+
+/**
+ * Tests {@link BoundedExecutor}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class BoundedExecutorTest {
+
+    private BoundedExecutor executor = new BoundedExecutor("test", 1, 2);
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void testQueueIsBounded() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        Runnable task = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        // given (one task running, two queued)
+        executor.execute(task);
+        started.await();
+        executor.execute(task);
+        executor.execute(task);
+
+        // when
+        catchException(executor).execute(task);
+
+        // then
+        assertTrue(caughtException() instanceof RejectedExecutionException);
+        ExecutorStats stats = executor.getStats();
+        assertEquals(2, stats.getQueueDepth());
+        assertEquals(2, stats.getPeakQueueDepth());
+        assertEquals(1, stats.getActiveCount());
+        assertEquals(1, stats.getRejectedCount());
+
+        // when
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // then
+        Thread.sleep(50); // the completion is counted after the task
+        stats = executor.getStats();
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(2, stats.getPeakQueueDepth());
+        assertEquals(3, stats.getCompletedCount());
+        assertTrue(stats.toString(), stats.getMaxQueueMillis() > 0);
+    }
+
+}
@@ -5,11 +5,23 @@ import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import it.vinicioflamini.sharedlib.couchdb.api.CouchDbCrudRepository;
+import it.vinicioflamini.sharedlib.couchdb.internal.AdapterUtils;
 import it.vinicioflamini.sharedlib.couchdb.support.DocumentLoader;
 
 /**
@@ -53,6 +65,52 @@ public class DocumentLoaderTest {
         assertThat(mapFunction, containsString("\n"));
     }
 
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testSaveAllSkipsUnchangedDocuments() throws Exception {
+        CouchDbCrudRepository<Map, String> repository = mock(CouchDbCrudRepository.class);
+        Map<String, Map> storedDocuments = new HashMap<>();
+        storedDocuments.put("a", document("_rev", "1-a", "name", "A", "_id", "a")); // same content, other order
+        storedDocuments.put("b", document("_id", "b", "_rev", "1-b", "name", "B"));
+        when(repository.findAllDocumentsById(any(Iterable.class))).thenReturn(storedDocuments);
+
+        int written = new DocumentLoader(repository).saveAll(Arrays.asList(document("_id", "a", "name", "A"),
+                document("_id", "b", "name", "B2"), document("_id", "c", "name", "C")));
+
+        assertEquals(2, written);
+        ArgumentCaptor<Iterable> saved = ArgumentCaptor.forClass(Iterable.class);
+        verify(repository).saveAll(saved.capture());
+        List<Map> savedDocuments = AdapterUtils.toList(saved.getValue());
+        assertEquals(2, savedDocuments.size());
+        assertEquals(document("_id", "b", "name", "B2", "_rev", "1-b"), savedDocuments.get(0));
+        assertEquals(document("_id", "c", "name", "C"), savedDocuments.get(1));
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testLoadResources() throws Exception {
+        CouchDbCrudRepository<Map, String> repository = mock(CouchDbCrudRepository.class);
+        when(repository.findAllDocumentsById(any(Iterable.class))).thenReturn(new HashMap<>());
+
+        int written = new DocumentLoader(repository).loadResources(
+                "classpath:it/vinicioflamini/sharedlib/couchdb/test/seed/*");
+
+        assertEquals(2, written);
+        ArgumentCaptor<Iterable> ids = ArgumentCaptor.forClass(Iterable.class);
+        verify(repository).findAllDocumentsById(ids.capture());
+        assertEquals(new HashSet<>(Arrays.asList("manufacturer-lumberjack", "category-chairs")), new HashSet<>(
+                AdapterUtils.toList(ids.getValue())));
+        verify(repository).saveAll(any(Iterable.class));
+    }
+
+    private Map<String, Object> document(String... keysAndValues) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            document.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return document;
+    }
+
     @SuppressWarnings("unchecked")
     private String get(Map<String, Object> map, String... path) {
         for (String element : path) {
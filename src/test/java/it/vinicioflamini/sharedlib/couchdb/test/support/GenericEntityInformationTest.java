@@ -0,0 +1,99 @@
+package it.vinicioflamini.sharedlib.couchdb.test.support;
+
+import static com.googlecode.catchexception.CatchException.catchException;
+import static com.googlecode.catchexception.CatchException.caughtException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import it.vinicioflamini.sharedlib.couchdb.support.GenericEntityInformation;
+import it.vinicioflamini.sharedlib.couchdb.support.SimpleEntityInformation;
+
+/**
+ * Tests {@link GenericEntityInformation} and {@link SimpleEntityInformation}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class GenericEntityInformationTest {
+
+    public static class Entity {
+
+        private String id;
+
+        private String revision;
+
+    }
+
+    public static class SubEntity extends Entity {
+    }
+
+    public static class CustomEntity {
+
+        private String key;
+
+        private String version;
+
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        GenericEntityInformation<Entity, String> ei = new GenericEntityInformation<>(Entity.class, String.class);
+        Entity entity = new SubEntity();
+
+        assertTrue(ei.isNew(entity));
+
+        ei.setId(entity, "id-1");
+        ei.setRev(entity, "1-a");
+
+        assertEquals("id-1", entity.id);
+        assertEquals("1-a", entity.revision);
+        assertEquals("id-1", ei.getCouchId(entity));
+        assertEquals("1-a", ei.getRev(entity));
+        assertFalse(ei.isNew(entity));
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testMap() throws Exception {
+        GenericEntityInformation<Map, String> ei = new GenericEntityInformation<>(Map.class, String.class);
+        Map map = new HashMap<>();
+
+        assertNull(ei.getCouchId(map));
+        assertTrue(ei.isNew(map));
+
+        ei.setId(map, "id-1");
+        map.put("rev", "1-a");
+        ei.setRev(map, "2-b");
+
+        assertEquals("id-1", map.get("_id"));
+        assertEquals("2-b", map.get("rev"));
+        assertFalse(map.containsKey("_rev"));
+        assertEquals("id-1", ei.getCouchId(map));
+        assertEquals("2-b", ei.getRev(map));
+    }
+
+    @Test
+    public void testSimpleEntityInformation() throws Exception {
+        SimpleEntityInformation<CustomEntity> ei = new SimpleEntityInformation<>(CustomEntity.class, "key", "version");
+        CustomEntity entity = new CustomEntity();
+
+        ei.setId(entity, "id-1");
+        ei.setRev(entity, "1-a");
+
+        assertEquals("id-1", entity.key);
+        assertEquals("1-a", ei.getRev(entity));
+        assertFalse(ei.isNew(entity));
+
+        SimpleEntityInformation<CustomEntity> wrong = new SimpleEntityInformation<>(CustomEntity.class, "id", "rev");
+        catchException(wrong).getCouchId(entity);
+        assertNotNull(caughtException());
+    }
+
+}
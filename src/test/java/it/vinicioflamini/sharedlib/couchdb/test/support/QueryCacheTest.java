@@ -0,0 +1,72 @@
+package it.vinicioflamini.sharedlib.couchdb.test.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import it.vinicioflamini.sharedlib.couchdb.support.CacheStats;
+import it.vinicioflamini.sharedlib.couchdb.support.QueryCache;
+
+/**
+ * Tests {@link QueryCache}.
+ *
+ * @author Vinicio Flamini (io@vinicioflamini.it)
+ */
+public class QueryCacheTest {
+
+    private long now = 1000;
+
+    private QueryCache cache = new QueryCache(3, 100, 60000) {
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+    };
+
+    @Test
+    public void testBoundedByBytes() throws Exception {
+        // given
+        cache.put("a", "A", "1", 40);
+        cache.put("b", "B", "1", 40);
+
+        // when
+        cache.get("a");
+        cache.put("c", "C", "1", 40);
+
+        // then (the least recently used result is evicted)
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getSize());
+        assertEquals(80, stats.getWeight());
+        assertEquals(1, stats.getEvictionCount());
+
+        // when (too large)
+        cache.put("d", "D", "1", 101);
+
+        // then
+        assertNull(cache.get("d"));
+        assertEquals(2, cache.getStats().getSize());
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        // given
+        cache.put("a", "A", "1", 10);
+
+        // when (revalidated)
+        now += 50000;
+        cache.revalidated(cache.get("a"));
+
+        // then (the time to live is counted from the query)
+        now += 10000;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getStats().getWeight());
+    }
+
+}